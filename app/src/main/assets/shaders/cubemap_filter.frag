@@ -38,9 +38,11 @@ struct ImportanceSampleCache {
 };
 
 // This array's length is one less than the number of roughness levels since the
-// first roughness level can be skipped.
-uniform ImportanceSampleCache
-    u_ImportanceSampleCaches[kNumberOfRoughnessLevels - 1];
+// first roughness level can be skipped. The block is populated from a single
+// uniform buffer, so its std140 layout must match SpecularCubemapFilter.
+layout(std140) uniform ImportanceSampleCaches {
+  ImportanceSampleCache u_ImportanceSampleCaches[kNumberOfRoughnessLevels - 1];
+};
 
 // The source radiance cubemap to be filtered.
 uniform samplerCube u_Cubemap;
@@ -82,10 +84,11 @@ vec4 Filter(const vec3 n) {
   tangentToWorld[1] = cross(n, tangentToWorld[0]);
   tangentToWorld[2] = n;
 
-  ImportanceSampleCache cache = u_ImportanceSampleCaches[u_RoughnessLevel - 1];
+  int cacheIndex = u_RoughnessLevel - 1;
+  int numberOfEntries = u_ImportanceSampleCaches[cacheIndex].number_of_entries;
   vec3 radiance = vec3(0.0);
-  for (int i = 0; i < cache.number_of_entries; ++i) {
-    ImportanceSampleCacheEntry entry = cache.entries[i];
+  for (int i = 0; i < numberOfEntries; ++i) {
+    ImportanceSampleCacheEntry entry = u_ImportanceSampleCaches[cacheIndex].entries[i];
     radiance +=
         textureLod(u_Cubemap, tangentToWorld * entry.direction, entry.level)
             .rgb *
@@ -35,6 +35,15 @@ uniform float u_ZFar;
 uniform float u_DepthAspectRatio;
 #endif  // USE_OCCLUSION
 
+// Reduced resolution occlusion: OCCLUSION_MASK_PASS writes the blurred
+// occlusion and the virtual scene depth into a small framebuffer, and
+// USE_OCCLUSION_MASK upsamples that mask when compositing at full resolution
+// instead of evaluating the blur kernel per screen pixel.
+#if USE_OCCLUSION_MASK
+// r: occlusion, g and b: virtual scene depth packed by Depth_PackUnit.
+uniform sampler2D u_OcclusionMaskTexture;
+#endif  // USE_OCCLUSION_MASK
+
 #if USE_OCCLUSION
 in vec2 v_CameraTexCoord;
 #endif  // USE_OCCLUSION
@@ -156,22 +165,85 @@ float Depth_GetBlurredOcclusionAroundUV(const sampler2D depthTexture,
 
   return sum / kKernelTotalWeights;
 }
+
+// Packs a value in [0, 1] into two 8-bit channels.
+vec2 Depth_PackUnit(highp float value) {
+  highp float scaled = clamp(value, 0.0, 1.0) * 255.0;
+  return vec2(floor(scaled) / 255.0, fract(scaled));
+}
+
+highp float Depth_UnpackUnit(vec2 packedValue) {
+  return (packedValue.x * 255.0 + packedValue.y) / 255.0;
+}
+
+#if USE_OCCLUSION_MASK
+// Joint bilateral upsampling of the occlusion mask: the four nearest mask
+// texels are weighted bilinearly and by how close their virtual scene depth is
+// to this pixel's, so that occlusion does not bleed across object edges.
+float Depth_GetUpsampledOcclusion(vec2 uv, float assetDepthMm) {
+  const float kDepthSigma = 0.05;  // Relative depth difference.
+  ivec2 maskSize = textureSize(u_OcclusionMaskTexture, 0);
+  vec2 texel = uv * vec2(maskSize) - 0.5;
+  ivec2 base = ivec2(floor(texel));
+  vec2 f = fract(texel);
+  float assetDepth01 = assetDepthMm / (u_ZFar * 1000.0);
+
+  float weightedOcclusion = 0.0;
+  float totalWeight = 0.0;
+  for (int y = 0; y <= 1; ++y) {
+    for (int x = 0; x <= 1; ++x) {
+      ivec2 coord = clamp(base + ivec2(x, y), ivec2(0), maskSize - 1);
+      vec3 mask = texelFetch(u_OcclusionMaskTexture, coord, 0).rgb;
+      float bilinear = (x == 0 ? 1.0 - f.x : f.x) * (y == 0 ? 1.0 - f.y : f.y);
+      float relativeDifference = abs(Depth_UnpackUnit(mask.gb) - assetDepth01) /
+                                 max(assetDepth01, 1e-4);
+      // The small constant degrades to plain bilinear filtering when no
+      // neighbor has a similar depth.
+      float weight =
+          bilinear * (exp(-relativeDifference / kDepthSigma) + 1e-3);
+      weightedOcclusion += mask.r * weight;
+      totalWeight += weight;
+    }
+  }
+  return weightedOcclusion / max(totalWeight, 1e-6);
+}
+#endif  // USE_OCCLUSION_MASK
 #endif  // USE_OCCLUSION
 
 void main() {
   o_FragColor = texture(u_VirtualSceneColorTexture, v_VirtualSceneTexCoord);
 
 #if USE_OCCLUSION
+#if OCCLUSION_MASK_PASS
+  if (o_FragColor.a == 0.0) {
+    // No virtual content: not occluded, and as far away as possible so that
+    // the upsampling ignores this texel next to virtual objects.
+    o_FragColor = vec4(0.0, Depth_PackUnit(1.0), 1.0);
+    return;
+  }
+#else
   if (o_FragColor.a == 0.0) {
     // There's no sense in calculating occlusion for a fully transparent pixel.
     return;
   }
+#endif  // OCCLUSION_MASK_PASS
   float assetDepthMm = Depth_GetVirtualSceneDepthMillimeters(
       u_VirtualSceneDepthTexture, v_VirtualSceneTexCoord, u_ZNear, u_ZFar);
 
+#if OCCLUSION_MASK_PASS
+  float maskOcclusion = Depth_GetBlurredOcclusionAroundUV(
+      u_CameraDepthTexture, v_CameraTexCoord, assetDepthMm);
+  o_FragColor = vec4(maskOcclusion,
+                     Depth_PackUnit(assetDepthMm / (u_ZFar * 1000.0)), 1.0);
+#elif USE_OCCLUSION_MASK
+  float occlusion =
+      Depth_GetUpsampledOcclusion(v_VirtualSceneTexCoord, assetDepthMm);
+#else
   float occlusion = Depth_GetBlurredOcclusionAroundUV(
       u_CameraDepthTexture, v_CameraTexCoord, assetDepthMm);
+#endif  // OCCLUSION_MASK_PASS
 
+#if !OCCLUSION_MASK_PASS
   // If the above blur operation is too expensive, you can replace it with the
   // following lines.
   /* float occlusion = Depth_GetOcclusion(u_CameraDepthTexture,
@@ -193,6 +265,7 @@ void main() {
   occlusionTransition = min(occlusionTransition, kMaxOcclusion);
 
   o_FragColor *= 1.0 - occlusion;
+#endif  // !OCCLUSION_MASK_PASS
 
 #endif  // USE_OCCLUSION
 }
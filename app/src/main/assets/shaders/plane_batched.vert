@@ -0,0 +1,41 @@
+#version 300 es
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Same as plane.vert, but for all planes at once: positions are already in
+// world space and the per-plane uniforms are per-vertex attributes.
+
+uniform mat4 u_ViewProjection;
+
+layout(location = 0) in vec4 a_WorldPositionAlpha; // (x, y, z, alpha)
+layout(location = 1) in vec4 a_PlaneUvMatrix; // 2x2 matrix, column-major
+layout(location = 2) in vec3 a_Normal;
+
+out vec3 v_TexCoordAlpha;
+
+void main() {
+   vec3 world_pos = a_WorldPositionAlpha.xyz;
+
+   // See plane.vert.
+   const vec3 arbitrary = vec3(1.0, 1.0, 0.0);
+   vec3 vec_u = normalize(cross(a_Normal, arbitrary));
+   vec3 vec_v = normalize(cross(a_Normal, vec_u));
+
+   vec2 uv = vec2(dot(world_pos, vec_u), dot(world_pos, vec_v));
+   mat2 plane_uv_matrix = mat2(a_PlaneUvMatrix.xy, a_PlaneUvMatrix.zw);
+   v_TexCoordAlpha = vec3(plane_uv_matrix * uv, a_WorldPositionAlpha.w);
+   gl_Position = u_ViewProjection * vec4(world_pos, 1.0);
+}
@@ -0,0 +1,31 @@
+#version 300 es
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+precision mediump float;
+
+in vec3 v_Color;
+
+out vec4 o_FragColor;
+
+void main() {
+  // Round point sprites: drop the corners of the square and shade the rim slightly darker.
+  vec2 offset = gl_PointCoord * 2.0 - 1.0;
+  float radiusSquared = dot(offset, offset);
+  if (radiusSquared > 1.0) {
+    discard;
+  }
+  o_FragColor = vec4(v_Color * (1.0 - 0.3 * radiusSquared), 1.0);
+}
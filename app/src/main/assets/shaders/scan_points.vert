@@ -0,0 +1,40 @@
+#version 300 es
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+uniform mat4 u_ModelView;
+uniform mat4 u_ModelViewProjection;
+// World-space diameter of a point.
+uniform float u_PointSize;
+// Converts a world-space size at unit distance to pixels: viewport height times half the vertical
+// focal length of the projection.
+uniform float u_PointSizeScale;
+uniform vec2 u_PointSizeRange;
+
+layout(location = 0) in vec4 a_Position;
+layout(location = 1) in vec3 a_Color;
+
+out vec3 v_Color;
+
+void main() {
+  vec4 viewPosition = u_ModelView * a_Position;
+  gl_Position = u_ModelViewProjection * a_Position;
+  // Points further away are drawn smaller, as if they were spheres of a fixed size.
+  float distance = max(-viewPosition.z, 1e-3);
+  gl_PointSize =
+      clamp(u_PointSize * u_PointSizeScale / distance, u_PointSizeRange.x, u_PointSizeRange.y);
+  v_Color = a_Color;
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Forwards {@link TraceRecorder} sections to {@link android.os.Trace}, so that they show up in
+ * systrace and Perfetto captures alongside the framework's own sections.
+ */
+public final class AndroidTraceListener implements TraceRecorder.SectionListener {
+  // android.os.Trace rejects section names longer than this.
+  private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+  @Override
+  public void onBeginSection(String name) {
+    Trace.beginSection(
+        name.length() > MAX_SECTION_NAME_LENGTH ? name.substring(0, MAX_SECTION_NAME_LENGTH) : name);
+  }
+
+  @Override
+  public void onEndSection(String name) {
+    Trace.endSection();
+  }
+
+  /** Records a counter track value in systrace. Does nothing before Android Q. */
+  public static void setCounter(String name, long value) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      Trace.setCounter(name, value);
+    }
+  }
+}
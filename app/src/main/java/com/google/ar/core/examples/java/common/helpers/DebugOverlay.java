@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.os.SystemClock;
+import android.widget.TextView;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shows debug counters and the most recent log lines in a {@link TextView}, updating it at most
+ * once per interval.
+ *
+ * <p>Counters are plain {@code long}s written by a single thread, usually the GL thread, which
+ * calls {@link #publish} once per frame to hand a copy of them to the UI thread. Log lines may be
+ * added from any thread and are kept in a ring of fixed capacity, so the text never grows past a
+ * fixed number of lines no matter how often either is updated.
+ */
+public class DebugOverlay {
+  private final TextView view;
+  private final long minIntervalMillis;
+
+  private final List<String> counterNames = new ArrayList<>();
+  // Written only by the counter thread.
+  private long[] counterValues = new long[0];
+  private long nextPublishMillis;
+
+  private final Object lock = new Object();
+  // Guarded by lock.
+  private long[] publishedValues = new long[0];
+  private final String[] lines;
+  private int numberOfLines;
+  private int nextLine;
+
+  // Only accessed on the UI thread.
+  private final StringBuilder text = new StringBuilder();
+  private long lastUpdateMillis;
+
+  private final AtomicBoolean isUpdatePending = new AtomicBoolean();
+  private final Runnable updateText =
+      new Runnable() {
+        @Override
+        public void run() {
+          isUpdatePending.set(false);
+          lastUpdateMillis = SystemClock.uptimeMillis();
+          render();
+        }
+      };
+
+  /**
+   * Constructs a {@link DebugOverlay} showing at most {@code maxLines} log lines in {@code view},
+   * refreshed at most every {@code minIntervalMillis} milliseconds.
+   */
+  public DebugOverlay(TextView view, int maxLines, long minIntervalMillis) {
+    if (maxLines <= 0) {
+      throw new IllegalArgumentException("maxLines must be positive");
+    }
+    this.view = view;
+    this.minIntervalMillis = minIntervalMillis;
+    lines = new String[maxLines];
+  }
+
+  /**
+   * Registers a counter shown as {@code name=value}, returning the index to pass to {@link #set}
+   * and {@link #add}. Must be called before the first {@link #publish}.
+   */
+  public int addCounter(String name) {
+    synchronized (lock) {
+      counterNames.add(name);
+      int size = counterNames.size();
+      counterValues = new long[size];
+      publishedValues = new long[size];
+      return size - 1;
+    }
+  }
+
+  /** Sets a counter. Must be called from the thread calling {@link #publish}. */
+  public void set(int counter, long value) {
+    counterValues[counter] = value;
+  }
+
+  /** Adds to a counter. Must be called from the thread calling {@link #publish}. */
+  public void add(int counter, long delta) {
+    counterValues[counter] += delta;
+  }
+
+  /**
+   * Copies the counters for display if the previous copy is at least one interval old. Cheap enough
+   * to call every frame.
+   */
+  public void publish() {
+    long now = SystemClock.uptimeMillis();
+    if (now < nextPublishMillis) {
+      return;
+    }
+    nextPublishMillis = now + minIntervalMillis;
+    synchronized (lock) {
+      System.arraycopy(counterValues, 0, publishedValues, 0, counterValues.length);
+    }
+    scheduleUpdate();
+  }
+
+  /**
+   * Appends a log line, dropping the oldest one if the ring is full. May be called from any
+   * thread.
+   */
+  public void log(String line) {
+    synchronized (lock) {
+      lines[nextLine] = line;
+      nextLine = (nextLine + 1) % lines.length;
+      numberOfLines = Math.min(numberOfLines + 1, lines.length);
+    }
+    scheduleUpdate();
+  }
+
+  /** Removes all log lines. May be called from any thread. */
+  public void clearLog() {
+    synchronized (lock) {
+      numberOfLines = 0;
+      nextLine = 0;
+      Arrays.fill(lines, null);
+    }
+    scheduleUpdate();
+  }
+
+  private void scheduleUpdate() {
+    if (!isUpdatePending.compareAndSet(false, true)) {
+      // Already scheduled; it will pick up this change.
+      return;
+    }
+    long delay = Math.max(0, lastUpdateMillis + minIntervalMillis - SystemClock.uptimeMillis());
+    view.postDelayed(updateText, delay);
+  }
+
+  private void render() {
+    text.setLength(0);
+    synchronized (lock) {
+      for (int i = 0; i < publishedValues.length; ++i) {
+        if (i > 0) {
+          text.append(' ');
+        }
+        text.append(counterNames.get(i)).append('=').append(publishedValues[i]);
+      }
+      int first = (nextLine - numberOfLines + lines.length) % lines.length;
+      for (int i = 0; i < numberOfLines; ++i) {
+        if (text.length() > 0) {
+          text.append('\n');
+        }
+        text.append(lines[(first + i) % lines.length]);
+      }
+    }
+    view.setText(text);
+  }
+}
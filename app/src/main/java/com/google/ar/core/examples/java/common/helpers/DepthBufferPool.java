@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.media.Image;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size pool of direct {@link ByteBuffer}s for copying depth images off the GL thread.
+ *
+ * <p>An {@link Image} returned by {@code Frame.acquireDepthImage()} must be closed before the next
+ * {@code Session.update()}, so a consumer on another thread needs a copy of its plane. Copying into
+ * pooled buffers instead of fresh ones keeps depth capture from generating garbage.
+ *
+ * <p>Buffers are sized by the first image copied. If the depth resolution later grows, the pool
+ * is resized and the old buffers are discarded as they are released. When every buffer is in use
+ * {@link #copyOf} returns null rather than allocating, and the exhaustion is counted.
+ */
+public class DepthBufferPool {
+  private final int poolSize;
+  private final ArrayBlockingQueue<PooledBuffer> freeBuffers;
+  private volatile int bufferCapacity;
+
+  private final AtomicLong numberOfCopies = new AtomicLong();
+  private final AtomicLong numberOfExhaustions = new AtomicLong();
+  private final AtomicLong numberOfAllocations = new AtomicLong();
+
+  /** Constructs a pool holding at most {@code poolSize} buffers. */
+  public DepthBufferPool(int poolSize) {
+    if (poolSize <= 0) {
+      throw new IllegalArgumentException("Pool size must be positive");
+    }
+    this.poolSize = poolSize;
+    freeBuffers = new ArrayBlockingQueue<>(poolSize);
+  }
+
+  /**
+   * Copies the first plane of {@code image} into a pooled buffer.
+   *
+   * <p>Must always be called from the same thread. The returned buffer holds one reference which
+   * the caller must eventually {@link PooledBuffer#release}. Its position is 0 and its limit is the
+   * size of the plane.
+   *
+   * @return the copy, or null if every buffer of the pool is in use
+   */
+  public PooledBuffer copyOf(Image image) {
+    Image.Plane plane = image.getPlanes()[0];
+    ByteBuffer source = plane.getBuffer();
+    int size = source.limit();
+    PooledBuffer buffer = obtain(size);
+    if (buffer == null) {
+      return null;
+    }
+    ByteBuffer destination = buffer.buffer;
+    destination.clear();
+    int position = source.position();
+    source.position(0);
+    destination.put(source);
+    source.position(position);
+    destination.flip();
+    buffer.width = image.getWidth();
+    buffer.height = image.getHeight();
+    buffer.rowStride = plane.getRowStride();
+    buffer.pixelStride = plane.getPixelStride();
+    buffer.timestamp = image.getTimestamp();
+    numberOfCopies.incrementAndGet();
+    return buffer;
+  }
+
+  /** Returns the number of images copied. */
+  public long getNumberOfCopies() {
+    return numberOfCopies.get();
+  }
+
+  /** Returns the number of copies refused because every buffer was in use. */
+  public long getNumberOfExhaustions() {
+    return numberOfExhaustions.get();
+  }
+
+  /** Returns the number of buffers allocated, including replacements after a resolution change. */
+  public long getNumberOfAllocations() {
+    return numberOfAllocations.get();
+  }
+
+  private PooledBuffer obtain(int size) {
+    if (size > bufferCapacity) {
+      // First image, or the resolution grew: buffers still in use are dropped on release.
+      bufferCapacity = size;
+      freeBuffers.clear();
+      for (int i = 0; i < poolSize; ++i) {
+        freeBuffers.offer(allocate(size));
+      }
+    }
+    PooledBuffer buffer = freeBuffers.poll();
+    // A buffer released concurrently with a resize may still be too small.
+    while (buffer != null && buffer.buffer.capacity() < size) {
+      buffer = freeBuffers.poll();
+    }
+    if (buffer == null) {
+      numberOfExhaustions.incrementAndGet();
+      return null;
+    }
+    buffer.referenceCount.set(1);
+    return buffer;
+  }
+
+  private PooledBuffer allocate(int size) {
+    numberOfAllocations.incrementAndGet();
+    return new PooledBuffer(ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder()));
+  }
+
+  private void recycle(PooledBuffer buffer) {
+    if (buffer.buffer.capacity() == bufferCapacity) {
+      freeBuffers.offer(buffer);
+    }
+  }
+
+  /** A reference-counted copy of a depth image plane. */
+  public class PooledBuffer {
+    private final ByteBuffer buffer;
+    private final AtomicInteger referenceCount = new AtomicInteger();
+    private int width;
+    private int height;
+    private int rowStride;
+    private int pixelStride;
+    private long timestamp;
+
+    private PooledBuffer(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    /** Returns the copied plane, in native byte order. */
+    public ByteBuffer getBuffer() {
+      return buffer;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    public int getRowStride() {
+      return rowStride;
+    }
+
+    public int getPixelStride() {
+      return pixelStride;
+    }
+
+    /** Returns the timestamp of the image this buffer was copied from. */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    /** Adds a reference, for handing the buffer to another consumer. */
+    public PooledBuffer retain() {
+      if (referenceCount.getAndIncrement() <= 0) {
+        throw new IllegalStateException("Buffer was already returned to the pool");
+      }
+      return this;
+    }
+
+    /** Drops a reference, returning the buffer to the pool when none remain. */
+    public void release() {
+      int count = referenceCount.decrementAndGet();
+      if (count == 0) {
+        recycle(this);
+      } else if (count < 0) {
+        throw new IllegalStateException("Buffer released more often than retained");
+      }
+    }
+  }
+}
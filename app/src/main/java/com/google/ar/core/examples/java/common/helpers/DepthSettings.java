@@ -24,10 +24,13 @@ public class DepthSettings {
   public static final String SHARED_PREFERENCES_SHOW_DEPTH_ENABLE_DIALOG_OOBE =
       "show_depth_enable_dialog_oobe";
   public static final String SHARED_PREFERENCES_USE_DEPTH_FOR_OCCLUSION = "use_depth_for_occlusion";
+  public static final String SHARED_PREFERENCES_USE_LOW_RESOLUTION_OCCLUSION =
+      "use_low_resolution_occlusion";
 
   // Current depth-based settings used by the app.
   private boolean depthColorVisualizationEnabled = false;
   private boolean useDepthForOcclusion = false;
+  private boolean useLowResolutionOcclusion = false;
   private SharedPreferences sharedPreferences;
 
   /** Initializes the current settings based on when the app was last used. */
@@ -35,6 +38,8 @@ public class DepthSettings {
     sharedPreferences = context.getSharedPreferences(SHARED_PREFERENCES_ID, Context.MODE_PRIVATE);
     useDepthForOcclusion =
         sharedPreferences.getBoolean(SHARED_PREFERENCES_USE_DEPTH_FOR_OCCLUSION, false);
+    useLowResolutionOcclusion =
+        sharedPreferences.getBoolean(SHARED_PREFERENCES_USE_LOW_RESOLUTION_OCCLUSION, false);
   }
 
   /** Retrieves whether depth-based occlusion is enabled. */
@@ -54,6 +59,26 @@ public class DepthSettings {
     editor.apply();
   }
 
+  /**
+   * Retrieves whether depth-based occlusion is computed at reduced resolution and upsampled, which
+   * is cheaper but may soften occlusion edges.
+   */
+  public boolean useLowResolutionOcclusion() {
+    return useLowResolutionOcclusion;
+  }
+
+  public void setUseLowResolutionOcclusion(boolean enable) {
+    if (enable == useLowResolutionOcclusion) {
+      return; // No change.
+    }
+
+    // Updates the stored default settings.
+    useLowResolutionOcclusion = enable;
+    SharedPreferences.Editor editor = sharedPreferences.edit();
+    editor.putBoolean(SHARED_PREFERENCES_USE_LOW_RESOLUTION_OCCLUSION, useLowResolutionOcclusion);
+    editor.apply();
+  }
+
   /** Retrieves whether to render the depth map visualization instead of the camera feed. */
   public boolean depthColorVisualizationEnabled() {
     return depthColorVisualizationEnabled;
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/** Manages the depth scanning option settings and shared preferences. */
+public class ScanSettings {
+  public static final String SHARED_PREFERENCES_ID = "SHARED_PREFERENCES_SCAN_OPTIONS";
+  public static final String SHARED_PREFERENCES_USE_RAW_DEPTH = "use_raw_depth";
+  public static final String SHARED_PREFERENCES_CONFIDENCE_FILTER_ENABLED =
+      "confidence_filter_enabled";
+  public static final String SHARED_PREFERENCES_DEPTH_FUSION_ENABLED = "depth_fusion_enabled";
+
+  // Current scan settings used by the app.
+  private boolean useRawDepth = true;
+  private boolean confidenceFilterEnabled = true;
+  private boolean depthFusionEnabled = true;
+  private SharedPreferences sharedPreferences;
+
+  /** Initializes the current settings based on when the app was last used. */
+  public void onCreate(Context context) {
+    sharedPreferences = context.getSharedPreferences(SHARED_PREFERENCES_ID, Context.MODE_PRIVATE);
+    useRawDepth = sharedPreferences.getBoolean(SHARED_PREFERENCES_USE_RAW_DEPTH, true);
+    confidenceFilterEnabled =
+        sharedPreferences.getBoolean(SHARED_PREFERENCES_CONFIDENCE_FILTER_ENABLED, true);
+    depthFusionEnabled =
+        sharedPreferences.getBoolean(SHARED_PREFERENCES_DEPTH_FUSION_ENABLED, true);
+  }
+
+  /**
+   * Retrieves whether scanning samples the raw depth image and its confidence image instead of the
+   * smoothed depth image.
+   */
+  public boolean useRawDepth() {
+    return useRawDepth;
+  }
+
+  public void setUseRawDepth(boolean enable) {
+    if (enable == useRawDepth) {
+      return; // No change.
+    }
+
+    // Updates the stored default settings.
+    useRawDepth = enable;
+    SharedPreferences.Editor editor = sharedPreferences.edit();
+    editor.putBoolean(SHARED_PREFERENCES_USE_RAW_DEPTH, useRawDepth);
+    editor.apply();
+  }
+
+  /**
+   * Retrieves whether low-confidence depth pixels are discarded while scanning. Only applies to raw
+   * depth, since the smoothed depth image has no confidence image.
+   */
+  public boolean isConfidenceFilterEnabled() {
+    return confidenceFilterEnabled;
+  }
+
+  public void setConfidenceFilterEnabled(boolean enable) {
+    if (enable == confidenceFilterEnabled) {
+      return; // No change.
+    }
+
+    // Updates the stored default settings.
+    confidenceFilterEnabled = enable;
+    SharedPreferences.Editor editor = sharedPreferences.edit();
+    editor.putBoolean(SHARED_PREFERENCES_CONFIDENCE_FILTER_ENABLED, confidenceFilterEnabled);
+    editor.apply();
+  }
+
+  /** Retrieves whether consecutive depth frames are fused into one before back-projection. */
+  public boolean isDepthFusionEnabled() {
+    return depthFusionEnabled;
+  }
+
+  public void setDepthFusionEnabled(boolean enable) {
+    if (enable == depthFusionEnabled) {
+      return; // No change.
+    }
+
+    // Updates the stored default settings.
+    depthFusionEnabled = enable;
+    SharedPreferences.Editor editor = sharedPreferences.edit();
+    editor.putBoolean(SHARED_PREFERENCES_DEPTH_FUSION_ENABLED, depthFusionEnabled);
+    editor.apply();
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for exactly one producer thread and one consumer thread.
+ *
+ * <p>Neither side ever blocks: {@link #offer} fails when the queue is full and {@link #poll}
+ * returns null when it is empty. The producer only writes the tail and the consumer only writes
+ * the head, so no compare-and-set is needed.
+ */
+public final class SpscQueue<T> {
+  private final int mask;
+  private final AtomicReferenceArray<T> elements;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  /** Creates a queue holding up to {@code capacity} elements, rounded up to a power of two. */
+  public SpscQueue(int capacity) {
+    if (capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Capacity must be in [1, 2^30]: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    mask = size - 1;
+    elements = new AtomicReferenceArray<>(size);
+  }
+
+  /** Returns the maximum number of elements held at once. */
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Appends {@code element}. Must only be called from the producer thread.
+   *
+   * @return false if the queue is full, in which case the element was not added
+   */
+  public boolean offer(T element) {
+    if (element == null) {
+      throw new IllegalArgumentException("Element must not be null");
+    }
+    long currentTail = tail.get();
+    if (currentTail - head.get() > mask) {
+      return false;
+    }
+    elements.lazySet((int) (currentTail & mask), element);
+    tail.lazySet(currentTail + 1);
+    return true;
+  }
+
+  /**
+   * Removes and returns the oldest element, or null if the queue is empty. Must only be called from
+   * the consumer thread.
+   */
+  public T poll() {
+    long currentHead = head.get();
+    if (currentHead == tail.get()) {
+      return null;
+    }
+    int index = (int) (currentHead & mask);
+    T element = elements.get(index);
+    elements.lazySet(index, null);
+    head.lazySet(currentHead + 1);
+    return element;
+  }
+
+  /** Returns the number of elements currently queued. May be stale by the time it returns. */
+  public int size() {
+    return (int) Math.max(0, tail.get() - head.get());
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+}
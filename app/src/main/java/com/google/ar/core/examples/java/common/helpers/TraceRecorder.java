@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records named spans with nanosecond timestamps into a preallocated ring buffer.
+ *
+ * <p>Spans are opened with {@link #beginSection} and closed with {@link #endSection}, which must
+ * be called on the same thread and properly nested, typically in a {@code try}/{@code finally}
+ * block. Recording a span does not allocate; once the ring is full the oldest spans are
+ * overwritten.
+ *
+ * <p>This class has no Android dependencies. Platform tracing is attached through a {@link
+ * SectionListener}, such as {@link AndroidTraceListener}.
+ */
+public final class TraceRecorder {
+  /** Receives every section as it is opened and closed, on the thread that recorded it. */
+  public interface SectionListener {
+    void onBeginSection(String name);
+
+    void onEndSection(String name);
+  }
+
+  private final int capacity;
+  private final String[] names;
+  private final long[] startNanos;
+  private final long[] durationNanos;
+  private final long[] threadIds;
+  private long numberOfRecordedSpans;
+  private final long originNanos = System.nanoTime();
+
+  private volatile SectionListener listener;
+
+  /** Creates a recorder which keeps the most recent {@code capacity} spans. */
+  public TraceRecorder(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    this.capacity = capacity;
+    names = new String[capacity];
+    startNanos = new long[capacity];
+    durationNanos = new long[capacity];
+    threadIds = new long[capacity];
+  }
+
+  /** Sets the listener notified of every section. May be null. */
+  public void setSectionListener(SectionListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Opens a span named {@code name}, returning its start timestamp which must be passed to the
+   * matching {@link #endSection} call.
+   */
+  public long beginSection(String name) {
+    SectionListener listener = this.listener;
+    if (listener != null) {
+      listener.onBeginSection(name);
+    }
+    return System.nanoTime();
+  }
+
+  /** Closes the span named {@code name} that was opened at {@code startNanos}. */
+  public void endSection(String name, long startNanos) {
+    long endNanos = System.nanoTime();
+    SectionListener listener = this.listener;
+    if (listener != null) {
+      listener.onEndSection(name);
+    }
+    record(name, startNanos, endNanos - startNanos, Thread.currentThread().getId());
+  }
+
+  /** Records an already measured span. */
+  public synchronized void record(
+      String name, long startNanos, long durationNanos, long threadId) {
+    int index = (int) (numberOfRecordedSpans % capacity);
+    names[index] = name;
+    this.startNanos[index] = startNanos;
+    this.durationNanos[index] = durationNanos;
+    threadIds[index] = threadId;
+    ++numberOfRecordedSpans;
+  }
+
+  /** Returns the number of spans currently held in the ring. */
+  public synchronized int size() {
+    return (int) Math.min(numberOfRecordedSpans, capacity);
+  }
+
+  /** Removes all recorded spans. */
+  public synchronized void clear() {
+    numberOfRecordedSpans = 0;
+    Arrays.fill(names, null);
+  }
+
+  /**
+   * Returns one line per span name, in order of first appearance, with the number of occurrences
+   * and the minimum, average and maximum duration in milliseconds.
+   */
+  public synchronized String getSummary() {
+    // Per name: count, total, min, max.
+    Map<String, long[]> statistics = new LinkedHashMap<>();
+    int size = size();
+    for (int i = 0; i < size; ++i) {
+      int index = getIndex(i);
+      long duration = durationNanos[index];
+      long[] entry = statistics.get(names[index]);
+      if (entry == null) {
+        statistics.put(names[index], new long[] {1, duration, duration, duration});
+      } else {
+        entry[0]++;
+        entry[1] += duration;
+        entry[2] = Math.min(entry[2], duration);
+        entry[3] = Math.max(entry[3], duration);
+      }
+    }
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, long[]> entry : statistics.entrySet()) {
+      long[] values = entry.getValue();
+      builder.append(
+          String.format(
+              Locale.US,
+              "%s: n=%d min=%.3fms avg=%.3fms max=%.3fms%n",
+              entry.getKey(),
+              values[0],
+              values[2] / 1e6,
+              values[1] / 1e6 / values[0],
+              values[3] / 1e6));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Writes the recorded spans in the Chrome trace event format, which can be loaded by Perfetto or
+   * {@code chrome://tracing}. Timestamps are relative to the creation of this recorder.
+   */
+  public synchronized void writeChromeTrace(Writer writer) throws IOException {
+    writer.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+    int size = size();
+    for (int i = 0; i < size; ++i) {
+      int index = getIndex(i);
+      if (i > 0) {
+        writer.write(',');
+      }
+      writer.write("\n{\"name\":\"");
+      writeEscaped(writer, names[index]);
+      writer.write("\",\"ph\":\"X\",\"pid\":0,\"tid\":");
+      writer.write(Long.toString(threadIds[index]));
+      writer.write(",\"ts\":");
+      writer.write(formatMicros(startNanos[index] - originNanos));
+      writer.write(",\"dur\":");
+      writer.write(formatMicros(durationNanos[index]));
+      writer.write('}');
+    }
+    writer.write("\n]}\n");
+  }
+
+  // Maps the i-th oldest span held in the ring to its index in the arrays.
+  private int getIndex(int i) {
+    long first = numberOfRecordedSpans - size();
+    return (int) ((first + i) % capacity);
+  }
+
+  private static String formatMicros(long nanos) {
+    return String.format(Locale.US, "%.3f", nanos / 1e3);
+  }
+
+  private static void writeEscaped(Writer writer, String value) throws IOException {
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        writer.write('\\');
+        writer.write(c);
+      } else if (c < 0x20) {
+        writer.write(String.format("\\u%04x", (int) c));
+      } else {
+        writer.write(c);
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import com.google.ar.core.Frame;
+import com.google.ar.core.Plane;
+import com.google.ar.core.TrackingState;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the set of live planes and their tracking states up to date from {@link
+ * Frame#getUpdatedTrackables}, so that per-frame consumers do not each enumerate {@link
+ * com.google.ar.core.Session#getAllTrackables}.
+ *
+ * <p>{@link #update} must be called once for every frame returned by {@link
+ * com.google.ar.core.Session#update}, since changes are only reported in the frame in which they
+ * happen. Planes that stopped tracking or were subsumed by another plane are dropped. Only use from
+ * the thread that calls {@code Session.update()}.
+ */
+public class TrackedPlaneCache {
+  private final Map<Plane, TrackingState> trackingStates = new HashMap<>();
+  // The keys of trackingStates, in a list so that per-frame consumers can iterate by index.
+  private final ArrayList<Plane> planeList = new ArrayList<>();
+  private final List<Plane> planes = Collections.unmodifiableList(planeList);
+  private final ArrayList<Plane> updatedPlaneList = new ArrayList<>();
+  private final List<Plane> updatedPlanes = Collections.unmodifiableList(updatedPlaneList);
+  private int numberOfTrackingPlanes;
+
+  /** Applies the plane changes reported in {@code frame}. */
+  public void update(Frame frame) {
+    updatedPlaneList.clear();
+    for (Plane plane : frame.getUpdatedTrackables(Plane.class)) {
+      TrackingState state = plane.getTrackingState();
+      TrackingState previousState;
+      if (state == TrackingState.STOPPED || plane.getSubsumedBy() != null) {
+        previousState = trackingStates.remove(plane);
+        if (previousState != null) {
+          // Planes are rarely dropped, so the linear search does not matter.
+          planeList.remove(plane);
+        }
+      } else {
+        previousState = trackingStates.put(plane, state);
+        if (previousState == null) {
+          planeList.add(plane);
+        }
+        updatedPlaneList.add(plane);
+        if (state == TrackingState.TRACKING) {
+          ++numberOfTrackingPlanes;
+        }
+      }
+      if (previousState == TrackingState.TRACKING) {
+        --numberOfTrackingPlanes;
+      }
+    }
+  }
+
+  /** Forgets all planes, for example when the session is recreated. */
+  public void clear() {
+    trackingStates.clear();
+    planeList.clear();
+    updatedPlaneList.clear();
+    numberOfTrackingPlanes = 0;
+  }
+
+  /**
+   * Returns a live, read-only view of the planes that are tracking or paused. The view must not be
+   * iterated concurrently with {@link #update}.
+   */
+  public List<Plane> getPlanes() {
+    return planes;
+  }
+
+  /**
+   * Returns a live, read-only view of the planes among {@link #getPlanes} that were reported as
+   * updated by the last {@link #update}, i.e. whose pose or polygon may have changed.
+   */
+  public List<Plane> getUpdatedPlanes() {
+    return updatedPlanes;
+  }
+
+  /** Returns true if at least one plane is currently tracking. */
+  public boolean hasTrackingPlane() {
+    return numberOfTrackingPlanes > 0;
+  }
+
+  /** Returns the tracking state {@code plane} had in the last update. */
+  public TrackingState getTrackingState(Plane plane) {
+    TrackingState state = trackingStates.get(plane);
+    return state != null ? state : TrackingState.STOPPED;
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A ring of per-frame timing records written by the GL thread and readable from any thread.
+ *
+ * <p>Each record holds the interval since the previous frame, the CPU time spent in {@link
+ * SampleRender.Renderer#onDrawFrame}, and the CPU and GPU time of every pass opened with {@link
+ * SampleRender#beginPass}. The GL thread never blocks on readers: a record is published by bumping
+ * a volatile frame counter, and {@link #snapshot} discards any record that may have been
+ * overwritten while it was being copied.
+ *
+ * <p>GPU times come from timer queries that are read back a few frames late to avoid stalling the
+ * pipeline, so they describe a slightly older frame than the CPU times next to them. They are -1
+ * when unavailable.
+ */
+public class FrameStats {
+  /** The maximum number of distinct pass names. */
+  public static final int MAX_PASSES = 16;
+
+  private final int capacity;
+  private final long[] frameIntervalNanos;
+  private final long[] frameCpuNanos;
+  // Indexed by [slot * MAX_PASSES + pass].
+  private final long[] passCpuNanos;
+  private final long[] passGpuNanos;
+
+  private final String[] passNames = new String[MAX_PASSES];
+  private volatile int numberOfPasses;
+  private volatile long numberOfFrames;
+
+  // Only accessed by the GL thread.
+  private final Map<String, Integer> passIndices = new HashMap<>();
+  private long frameStartNanos;
+  private long previousFrameStartNanos;
+  private int slot;
+
+  /** Constructs a {@link FrameStats} keeping the records of the last {@code capacity} frames. */
+  public FrameStats(int capacity) {
+    if (capacity < 2) {
+      throw new IllegalArgumentException("Capacity must be at least 2");
+    }
+    this.capacity = capacity;
+    frameIntervalNanos = new long[capacity];
+    frameCpuNanos = new long[capacity];
+    passCpuNanos = new long[capacity * MAX_PASSES];
+    passGpuNanos = new long[capacity * MAX_PASSES];
+  }
+
+  /** Returns the total number of frames recorded so far. */
+  public long getNumberOfFrames() {
+    return numberOfFrames;
+  }
+
+  /**
+   * Returns the CPU time of the most recently completed frame, or 0 before the first one. Meant
+   * for the GL thread, which can use it to scale its own work while rendering the next frame.
+   */
+  public long getLastFrameCpuNanos() {
+    long frames = numberOfFrames;
+    return frames == 0 ? 0 : frameCpuNanos[(int) ((frames - 1) % capacity)];
+  }
+
+  /**
+   * Copies the most recent {@code maxFrames} records and summarizes them. May be called from any
+   * thread.
+   */
+  public Snapshot snapshot(int maxFrames) {
+    int passes = numberOfPasses;
+    long end = numberOfFrames;
+    int count = (int) Math.min(Math.min(maxFrames, capacity), end);
+    long[] intervals = new long[count];
+    long[] cpu = new long[count];
+    long[] passCpu = new long[count * passes];
+    long[] passGpu = new long[count * passes];
+    for (int i = 0; i < count; ++i) {
+      int source = (int) ((end - count + i) % capacity);
+      intervals[i] = frameIntervalNanos[source];
+      cpu[i] = frameCpuNanos[source];
+      System.arraycopy(passCpuNanos, source * MAX_PASSES, passCpu, i * passes, passes);
+      System.arraycopy(passGpuNanos, source * MAX_PASSES, passGpu, i * passes, passes);
+    }
+    // The GL thread may have started overwriting the oldest slots while they were copied; the
+    // record it is currently writing belongs to the frame one capacity before the latest counter.
+    long latest = numberOfFrames;
+    int firstValid = (int) Math.min(count, Math.max(0, (latest - capacity + 1) - (end - count)));
+    String[] names = Arrays.copyOf(passNames, passes);
+    return new Snapshot(names, intervals, cpu, passCpu, passGpu, firstValid, count);
+  }
+
+  /* package-private */
+  int getPassIndex(String name) {
+    Integer index = passIndices.get(name);
+    if (index != null) {
+      return index;
+    }
+    int passes = numberOfPasses;
+    if (passes == MAX_PASSES) {
+      throw new IllegalStateException("Too many distinct passes; the maximum is " + MAX_PASSES);
+    }
+    passNames[passes] = name;
+    passIndices.put(name, passes);
+    numberOfPasses = passes + 1;
+    return passes;
+  }
+
+  /* package-private */
+  void beginFrame() {
+    previousFrameStartNanos = frameStartNanos;
+    frameStartNanos = System.nanoTime();
+    slot = (int) (numberOfFrames % capacity);
+    Arrays.fill(passCpuNanos, slot * MAX_PASSES, (slot + 1) * MAX_PASSES, 0);
+    Arrays.fill(passGpuNanos, slot * MAX_PASSES, (slot + 1) * MAX_PASSES, -1);
+  }
+
+  /* package-private */
+  void addPassCpuNanos(int pass, long nanos) {
+    passCpuNanos[slot * MAX_PASSES + pass] += nanos;
+  }
+
+  /* package-private */
+  void addPassGpuNanos(int pass, long nanos) {
+    int index = slot * MAX_PASSES + pass;
+    passGpuNanos[index] = passGpuNanos[index] < 0 ? nanos : passGpuNanos[index] + nanos;
+  }
+
+  /* package-private */
+  void endFrame() {
+    frameCpuNanos[slot] = System.nanoTime() - frameStartNanos;
+    frameIntervalNanos[slot] =
+        previousFrameStartNanos == 0 ? 0 : frameStartNanos - previousFrameStartNanos;
+    // Publishes the record.
+    numberOfFrames = numberOfFrames + 1;
+  }
+
+  /** An immutable summary of a range of frame records. */
+  public static class Snapshot {
+    /** The number of frames summarized. */
+    public final int numberOfFrames;
+    /** Percentiles of the interval between consecutive frames, in nanoseconds. */
+    public final long p50FrameIntervalNanos;
+    public final long p95FrameIntervalNanos;
+    public final long p99FrameIntervalNanos;
+    /** Average CPU time spent rendering a frame, in nanoseconds. */
+    public final long averageFrameCpuNanos;
+    /** Names of the passes, in order of first use. */
+    public final String[] passNames;
+    /** Average CPU time per pass, in nanoseconds, indexed like {@link #passNames}. */
+    public final long[] averagePassCpuNanos;
+    /** Average GPU time per pass in nanoseconds, or -1 if it was never measured. */
+    public final long[] averagePassGpuNanos;
+
+    private Snapshot(
+        String[] passNames,
+        long[] intervals,
+        long[] cpu,
+        long[] passCpu,
+        long[] passGpu,
+        int first,
+        int end) {
+      int passes = passNames.length;
+      this.passNames = passNames;
+      averagePassCpuNanos = new long[passes];
+      averagePassGpuNanos = new long[passes];
+
+      long[] sortedIntervals = new long[end - first];
+      int numberOfIntervals = 0;
+      long totalCpu = 0;
+      long[] gpuCounts = new long[passes];
+      for (int i = first; i < end; ++i) {
+        if (intervals[i] > 0) {
+          sortedIntervals[numberOfIntervals++] = intervals[i];
+        }
+        totalCpu += cpu[i];
+        for (int pass = 0; pass < passes; ++pass) {
+          averagePassCpuNanos[pass] += passCpu[i * passes + pass];
+          long gpu = passGpu[i * passes + pass];
+          if (gpu >= 0) {
+            averagePassGpuNanos[pass] += gpu;
+            gpuCounts[pass]++;
+          }
+        }
+      }
+      numberOfFrames = end - first;
+      Arrays.sort(sortedIntervals, 0, numberOfIntervals);
+      p50FrameIntervalNanos = percentile(sortedIntervals, numberOfIntervals, 0.50);
+      p95FrameIntervalNanos = percentile(sortedIntervals, numberOfIntervals, 0.95);
+      p99FrameIntervalNanos = percentile(sortedIntervals, numberOfIntervals, 0.99);
+      averageFrameCpuNanos = numberOfFrames == 0 ? 0 : totalCpu / numberOfFrames;
+      for (int pass = 0; pass < passes; ++pass) {
+        averagePassCpuNanos[pass] =
+            numberOfFrames == 0 ? 0 : averagePassCpuNanos[pass] / numberOfFrames;
+        averagePassGpuNanos[pass] =
+            gpuCounts[pass] == 0 ? -1 : averagePassGpuNanos[pass] / gpuCounts[pass];
+      }
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder.append(
+          String.format(
+              Locale.US,
+              "frames=%d p50=%.2fms p95=%.2fms p99=%.2fms cpu=%.2fms",
+              numberOfFrames,
+              p50FrameIntervalNanos / 1e6,
+              p95FrameIntervalNanos / 1e6,
+              p99FrameIntervalNanos / 1e6,
+              averageFrameCpuNanos / 1e6));
+      for (int pass = 0; pass < passNames.length; ++pass) {
+        builder.append(
+            String.format(
+                Locale.US, "\n  %s: cpu=%.3fms", passNames[pass], averagePassCpuNanos[pass] / 1e6));
+        if (averagePassGpuNanos[pass] >= 0) {
+          builder.append(String.format(Locale.US, " gpu=%.3fms", averagePassGpuNanos[pass] / 1e6));
+        }
+      }
+      return builder.toString();
+    }
+
+    private static long percentile(long[] sorted, int size, double percentile) {
+      if (size == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(percentile * size) - 1;
+      return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+  }
+}
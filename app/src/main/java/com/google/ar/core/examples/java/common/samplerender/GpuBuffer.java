@@ -106,6 +106,32 @@ class GpuBuffer {
     }
   }
 
+  /**
+   * Uploads entries {@code [offset, offset + count)} of {@code entries} to the same range of the
+   * buffer, leaving the rest untouched. The range must lie within the current size of the buffer.
+   */
+  public void setRange(Buffer entries, int offset, int count) {
+    if (offset < 0 || count < 0 || offset + count > size) {
+      throw new IllegalArgumentException(
+          "Range [" + offset + ", " + (offset + count) + ") exceeds buffer size " + size);
+    }
+    if (offset + count > entries.limit()) {
+      throw new IllegalArgumentException("Range exceeds the limit of the entries buffer");
+    }
+    if (!entries.isDirect()) {
+      throw new IllegalArgumentException("Entries buffer must be a direct buffer");
+    }
+    if (count == 0) {
+      return;
+    }
+    GLES30.glBindBuffer(target, bufferId[0]);
+    GLError.maybeThrowGLException("Failed to bind buffer object", "glBindBuffer");
+    entries.position(offset);
+    GLES30.glBufferSubData(
+        target, offset * numberOfBytesPerEntry, count * numberOfBytesPerEntry, entries);
+    GLError.maybeThrowGLException("Failed to update buffer object range", "glBufferSubData");
+  }
+
   public void free() {
     if (bufferId[0] != 0) {
       GLES30.glDeleteBuffers(1, bufferId, 0);
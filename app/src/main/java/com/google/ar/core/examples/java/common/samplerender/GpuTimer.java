@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import android.opengl.GLES30;
+import android.util.Log;
+
+/**
+ * Measures the GPU time of render passes with {@code GL_EXT_disjoint_timer_query}.
+ *
+ * <p>Queries are kept in a ring spanning several frames and are only read back once the ring wraps
+ * around, so that the CPU never waits for the GPU. Results are discarded whenever the driver reports
+ * a disjoint event, e.g. a frequency change, since they may then be meaningless.
+ *
+ * @see <a
+ *     href="https://www.khronos.org/registry/OpenGL/extensions/EXT/EXT_disjoint_timer_query.txt">EXT_disjoint_timer_query</a>
+ */
+/* package-private */
+class GpuTimer {
+  private static final String TAG = GpuTimer.class.getSimpleName();
+
+  // From GL_EXT_disjoint_timer_query, which has no Java bindings.
+  private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+  private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+  // Number of frames in flight before results are read back.
+  private static final int NUMBER_OF_FRAMES = 4;
+  private static final int MAX_QUERIES_PER_FRAME = FrameStats.MAX_PASSES;
+
+  private final boolean supported;
+  private final int[] queries = new int[NUMBER_OF_FRAMES * MAX_QUERIES_PER_FRAME];
+  // The pass measured by each query, indexed like queries.
+  private final int[] queryPasses = new int[NUMBER_OF_FRAMES * MAX_QUERIES_PER_FRAME];
+  private final int[] numberOfIssuedQueries = new int[NUMBER_OF_FRAMES];
+  private final int[] result = new int[1];
+  private int frame;
+  private boolean queryActive;
+
+  public GpuTimer() {
+    String extensions = GLES30.glGetString(GLES30.GL_EXTENSIONS);
+    GLError.maybeLogGLError(Log.WARN, TAG, "Failed to query extensions", "glGetString");
+    boolean supported =
+        extensions != null && extensions.contains("GL_EXT_disjoint_timer_query");
+    if (supported) {
+      GLES30.glGenQueries(queries.length, queries, 0);
+      if (GLES30.glGetError() != GLES30.GL_NO_ERROR) {
+        Log.w(TAG, "Failed to create timer queries; GPU pass timing is disabled");
+        supported = false;
+      }
+    }
+    this.supported = supported;
+  }
+
+  public boolean isSupported() {
+    return supported;
+  }
+
+  /**
+   * Starts a new frame, reporting the results of the queries issued when this slot of the ring was
+   * last used to {@code stats}.
+   */
+  public void beginFrame(FrameStats stats) {
+    if (!supported) {
+      return;
+    }
+    frame = (frame + 1) % NUMBER_OF_FRAMES;
+    int base = frame * MAX_QUERIES_PER_FRAME;
+    int issued = numberOfIssuedQueries[frame];
+    numberOfIssuedQueries[frame] = 0;
+    if (issued == 0) {
+      return;
+    }
+    // Reading GL_GPU_DISJOINT_EXT also resets it.
+    GLES30.glGetIntegerv(GL_GPU_DISJOINT_EXT, result, 0);
+    boolean disjoint = result[0] != 0;
+    for (int i = 0; i < issued; ++i) {
+      GLES30.glGetQueryObjectuiv(queries[base + i], GLES30.GL_QUERY_RESULT_AVAILABLE, result, 0);
+      if (disjoint || result[0] == 0) {
+        continue;
+      }
+      // The 32-bit result wraps after about four seconds, which is plenty for a single pass.
+      GLES30.glGetQueryObjectuiv(queries[base + i], GLES30.GL_QUERY_RESULT, result, 0);
+      stats.addPassGpuNanos(queryPasses[base + i], result[0] & 0xffffffffL);
+    }
+    GLError.maybeLogGLError(Log.WARN, TAG, "Failed to read timer queries", "glGetQueryObjectuiv");
+  }
+
+  /** Starts measuring {@code pass}. Only one pass may be measured at a time. */
+  public void begin(int pass) {
+    int issued = numberOfIssuedQueries[frame];
+    if (!supported || issued == MAX_QUERIES_PER_FRAME) {
+      return;
+    }
+    int index = frame * MAX_QUERIES_PER_FRAME + issued;
+    GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, queries[index]);
+    GLError.maybeThrowGLException("Failed to begin timer query", "glBeginQuery");
+    queryPasses[index] = pass;
+    numberOfIssuedQueries[frame] = issued + 1;
+    queryActive = true;
+  }
+
+  /** Stops measuring the current pass. */
+  public void end() {
+    if (!queryActive) {
+      return;
+    }
+    GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+    GLError.maybeThrowGLException("Failed to end timer query", "glEndQuery");
+    queryActive = false;
+  }
+}
@@ -63,6 +63,8 @@ public class Mesh implements Closeable {
   private final PrimitiveMode primitiveMode;
   private final IndexBuffer indexBuffer;
   private final VertexBuffer[] vertexBuffers;
+  // {minX, minY, minZ, maxX, maxY, maxZ} of the local coordinates, if known.
+  private float[] bounds;
 
   /**
    * Construct a {@link Mesh}.
@@ -145,10 +147,39 @@ public class Mesh implements Closeable {
 
       IndexBuffer indexBuffer = new IndexBuffer(render, vertexIndices);
 
-      return new Mesh(render, Mesh.PrimitiveMode.TRIANGLES, indexBuffer, vertexBuffers);
+      Mesh mesh = new Mesh(render, Mesh.PrimitiveMode.TRIANGLES, indexBuffer, vertexBuffers);
+      mesh.bounds = computeBounds(localCoordinates);
+      return mesh;
     }
   }
 
+  /**
+   * Returns the axis-aligned bounding box of the local coordinates as {minX, minY, minZ, maxX,
+   * maxY, maxZ}, or null if it is not known. Only meshes created with {@link #createFromAsset} have
+   * bounds, since the contents of other meshes' vertex buffers may change at any time.
+   */
+  public float[] getBounds() {
+    return bounds;
+  }
+
+  private static float[] computeBounds(FloatBuffer localCoordinates) {
+    if (localCoordinates.limit() < 3) {
+      return null;
+    }
+    float[] bounds = {
+      Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+      -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE,
+    };
+    for (int i = 0; i + 2 < localCoordinates.limit(); i += 3) {
+      for (int axis = 0; axis < 3; ++axis) {
+        float value = localCoordinates.get(i + axis);
+        bounds[axis] = Math.min(bounds[axis], value);
+        bounds[axis + 3] = Math.max(bounds[axis + 3], value);
+      }
+    }
+    return bounds;
+  }
+
   @Override
   public void close() {
     if (vertexArrayId[0] != 0) {
@@ -186,4 +217,37 @@ public class Mesh implements Closeable {
           "Failed to draw vertex array object with indices", "glDrawElements");
     }
   }
+
+  /**
+   * Draws the vertex ranges {@code [firsts[i], firsts[i] + counts[i])} for {@code i} below {@code
+   * numberOfRanges}. Only meshes without an {@link IndexBuffer} may be drawn this way. Don't call
+   * this directly unless you are doing low level OpenGL code; instead, prefer {@link
+   * SampleRender#drawRanges}.
+   */
+  public void lowLevelDrawRanges(int[] firsts, int[] counts, int numberOfRanges) {
+    if (vertexArrayId[0] == 0) {
+      throw new IllegalStateException("Tried to draw a freed Mesh");
+    }
+    if (indexBuffer != null) {
+      throw new IllegalStateException("Vertex ranges can only be drawn from non-indexed meshes");
+    }
+    if (numberOfRanges > firsts.length || numberOfRanges > counts.length) {
+      throw new IllegalArgumentException("More ranges requested than given");
+    }
+
+    GLES30.glBindVertexArray(vertexArrayId[0]);
+    GLError.maybeThrowGLException("Failed to bind vertex array object", "glBindVertexArray");
+    int numberOfVertices = vertexBuffers[0].getNumberOfVertices();
+    for (int i = 0; i < numberOfRanges; ++i) {
+      if (firsts[i] < 0 || counts[i] < 0 || firsts[i] + counts[i] > numberOfVertices) {
+        throw new IllegalArgumentException(
+            "Vertex range [" + firsts[i] + ", " + (firsts[i] + counts[i]) + ") out of bounds");
+      }
+      if (counts[i] == 0) {
+        continue;
+      }
+      GLES30.glDrawArrays(primitiveMode.glesEnum, firsts[i], counts[i]);
+      GLError.maybeThrowGLException("Failed to draw vertex array object range", "glDrawArrays");
+    }
+  }
 }
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import android.opengl.GLES30;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A persistent cache of linked shader program binaries.
+ *
+ * <p>Entries are keyed by a hash of the final vertex and fragment shader code, including any
+ * inserted {@code #define}s, together with the GL vendor, renderer and version strings. A driver
+ * update therefore never reuses a stale binary. Binaries which the driver refuses to load are
+ * deleted, and the {@link Shader} falls back to compiling from source.
+ *
+ * <p>All methods except the statistics getters must be called on the GL thread.
+ *
+ * @see <a
+ *     href="https://www.khronos.org/registry/OpenGL-Refpages/es3.0/html/glProgramBinary.xhtml">glProgramBinary</a>
+ */
+public class ProgramBinaryCache {
+  private static final String TAG = ProgramBinaryCache.class.getSimpleName();
+
+  // Bump this whenever the file layout or the key derivation changes.
+  private static final int FILE_VERSION = 1;
+  private static final int FILE_MAGIC = 0x50424331; // "PBC1"
+  private static final String FILE_SUFFIX = ".bin";
+
+  private final File directory;
+  private String driverFingerprint;
+  private Boolean binaryFormatsSupported;
+
+  private int hitCount;
+  private int compileCount;
+  private int rejectedCount;
+  private long hitNanos;
+  private long compileNanos;
+
+  /**
+   * Constructs a {@link ProgramBinaryCache} which stores its entries in {@code directory}. The
+   * directory is created on first use; an app-private location such as {@link
+   * android.content.Context#getCodeCacheDir()} is recommended.
+   */
+  public ProgramBinaryCache(File directory) {
+    this.directory = directory;
+  }
+
+  /** Returns the number of programs loaded from the cache. */
+  public synchronized int getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of programs compiled from source. */
+  public synchronized int getCompileCount() {
+    return compileCount;
+  }
+
+  /** Returns the total time spent loading programs from the cache, in nanoseconds. */
+  public synchronized long getHitNanos() {
+    return hitNanos;
+  }
+
+  /** Returns the total time spent compiling and linking programs from source, in nanoseconds. */
+  public synchronized long getCompileNanos() {
+    return compileNanos;
+  }
+
+  /** Returns a human-readable summary of cache hits versus compiles and their timings. */
+  public synchronized String getStatistics() {
+    return String.format(
+        "%d cache hits (%.2f ms), %d compiled from source (%.2f ms), %d rejected binaries",
+        hitCount, hitNanos / 1e6, compileCount, compileNanos / 1e6, rejectedCount);
+  }
+
+  /* package-private */
+  String createKey(String vertexShaderCode, String fragmentShaderCode) {
+    if (driverFingerprint == null) {
+      driverFingerprint =
+          GLES30.glGetString(GLES30.GL_VENDOR)
+              + '\n'
+              + GLES30.glGetString(GLES30.GL_RENDERER)
+              + '\n'
+              + GLES30.glGetString(GLES30.GL_VERSION);
+      GLError.maybeLogGLError(Log.WARN, TAG, "Failed to query driver version", "glGetString");
+    }
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+    digest.update(Integer.toString(FILE_VERSION).getBytes(UTF_8));
+    digest.update((byte) 0);
+    digest.update(driverFingerprint.getBytes(UTF_8));
+    digest.update((byte) 0);
+    digest.update(vertexShaderCode.getBytes(UTF_8));
+    digest.update((byte) 0);
+    digest.update(fragmentShaderCode.getBytes(UTF_8));
+    StringBuilder builder = new StringBuilder();
+    for (byte b : digest.digest()) {
+      builder.append(String.format("%02x", b));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Creates a program from the cached binary for {@code key}. Returns the linked program ID, or 0
+   * if there is no usable entry.
+   */
+  /* package-private */
+  int loadProgram(String key) {
+    File file = getFile(key);
+    if (!file.isFile()) {
+      return 0;
+    }
+
+    int binaryFormat;
+    ByteBuffer binary;
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (input.readInt() != FILE_MAGIC) {
+        throw new IOException("Unrecognized program binary file header");
+      }
+      binaryFormat = input.readInt();
+      int length = input.readInt();
+      if (length <= 0) {
+        throw new IOException("Invalid program binary length: " + length);
+      }
+      byte[] bytes = new byte[length];
+      input.readFully(bytes);
+      binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+      binary.put(bytes);
+      binary.rewind();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read program binary " + file, e);
+      reject(file);
+      return 0;
+    }
+
+    int programId = GLES30.glCreateProgram();
+    GLError.maybeThrowGLException("Shader program creation failed", "glCreateProgram");
+    GLES30.glProgramBinary(programId, binaryFormat, binary, binary.capacity());
+    // Drivers report an incompatible binary either with an error or with a failed link status, so
+    // treat both as a cache miss.
+    GLError.maybeLogGLError(Log.WARN, TAG, "Failed to load program binary", "glProgramBinary");
+    final int[] linkStatus = new int[1];
+    GLES30.glGetProgramiv(programId, GLES30.GL_LINK_STATUS, linkStatus, 0);
+    if (linkStatus[0] == GLES30.GL_FALSE) {
+      GLES30.glDeleteProgram(programId);
+      GLError.maybeLogGLError(Log.WARN, TAG, "Failed to free shader program", "glDeleteProgram");
+      reject(file);
+      return 0;
+    }
+    return programId;
+  }
+
+  /**
+   * Stores the binary of a successfully linked program under {@code key}. Failures are logged and
+   * otherwise ignored, since the cache is only an optimization.
+   */
+  /* package-private */
+  void storeProgram(int programId, String key) {
+    if (!areBinaryFormatsSupported()) {
+      return;
+    }
+    final int[] length = new int[1];
+    GLES30.glGetProgramiv(programId, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+    GLError.maybeLogGLError(
+        Log.WARN, TAG, "Failed to query program binary length", "glGetProgramiv");
+    if (length[0] <= 0) {
+      return;
+    }
+    ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+    final int[] binaryFormat = new int[1];
+    GLES30.glGetProgramBinary(programId, length[0], length, 0, binaryFormat, 0, binary);
+    int error = GLES30.glGetError();
+    if (error != GLES30.GL_NO_ERROR) {
+      Log.w(TAG, "Failed to retrieve program binary: glGetProgramBinary: " + error);
+      return;
+    }
+    byte[] bytes = new byte[length[0]];
+    binary.rewind();
+    binary.get(bytes);
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      Log.w(TAG, "Failed to create program binary cache directory " + directory);
+      return;
+    }
+    // Write to a temporary file first so that a crash never leaves a truncated entry behind.
+    File file = getFile(key);
+    File temporaryFile = new File(directory, key + ".tmp");
+    try (DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+      output.writeInt(FILE_MAGIC);
+      output.writeInt(binaryFormat[0]);
+      output.writeInt(bytes.length);
+      output.write(bytes);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write program binary " + file, e);
+      temporaryFile.delete();
+      return;
+    }
+    if (!temporaryFile.renameTo(file)) {
+      Log.w(TAG, "Failed to commit program binary " + file);
+      temporaryFile.delete();
+    }
+  }
+
+  /* package-private */
+  synchronized void recordHit(long nanos) {
+    hitCount++;
+    hitNanos += nanos;
+  }
+
+  /* package-private */
+  synchronized void recordCompile(long nanos) {
+    compileCount++;
+    compileNanos += nanos;
+  }
+
+  private boolean areBinaryFormatsSupported() {
+    if (binaryFormatsSupported == null) {
+      final int[] numberOfFormats = new int[1];
+      GLES30.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, numberOfFormats, 0);
+      GLError.maybeLogGLError(
+          Log.WARN, TAG, "Failed to query number of program binary formats", "glGetIntegerv");
+      binaryFormatsSupported = numberOfFormats[0] > 0;
+      if (!binaryFormatsSupported) {
+        Log.i(TAG, "Driver exposes no program binary formats; shaders will not be cached");
+      }
+    }
+    return binaryFormatsSupported;
+  }
+
+  private synchronized void reject(File file) {
+    rejectedCount++;
+    if (!file.delete()) {
+      Log.w(TAG, "Failed to delete rejected program binary " + file);
+    }
+  }
+
+  private File getFile(String key) {
+    return new File(directory, key + FILE_SUFFIX);
+  }
+}
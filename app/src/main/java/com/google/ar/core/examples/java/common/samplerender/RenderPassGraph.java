@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ordered set of named render passes making up a frame.
+ *
+ * <p>Passes are grouped into {@link Stage}s which always execute in declaration order, and passes
+ * within a stage execute in registration order. Every pass is timed with {@link
+ * SampleRender#beginPass}, and can be switched off with {@link RenderPass#setEnabled} to measure
+ * what it costs.
+ *
+ * <p>A <i>full-screen</i> pass overwrites every pixel of its target, so a second one on the same
+ * target within a frame only wastes fill rate. Registering such a duplicate throws, and one which
+ * would still execute twice in a frame is skipped.
+ */
+public class RenderPassGraph {
+  private static final String TAG = RenderPassGraph.class.getSimpleName();
+
+  /** The stages of a frame, in execution order. */
+  public enum Stage {
+    /** The camera background, or a visualization replacing it. */
+    BACKGROUND,
+    /** Geometry describing the tracked world, such as planes and feature points. */
+    WORLD_GEOMETRY,
+    /** Virtual content, usually rendered to an offscreen framebuffer. */
+    VIRTUAL_SCENE,
+    /** Composition of offscreen results onto the screen. */
+    COMPOSITE,
+  }
+
+  /** The draw calls of a pass. */
+  public interface PassBody {
+    public void draw(SampleRender render);
+  }
+
+  /** A render pass registered with a {@link RenderPassGraph}. */
+  public static class RenderPass {
+    private final String name;
+    private final Stage stage;
+    private final boolean fullScreen;
+    private final Framebuffer target;
+    private final PassBody body;
+    // Set from the UI thread, read on the GL thread.
+    private volatile boolean enabled = true;
+    private boolean hasWarnedAboutDuplicate;
+
+    private RenderPass(
+        String name, Stage stage, boolean fullScreen, Framebuffer target, PassBody body) {
+      this.name = name;
+      this.stage = stage;
+      this.fullScreen = fullScreen;
+      this.target = target;
+      this.body = body;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Stage getStage() {
+      return stage;
+    }
+
+    public boolean isFullScreen() {
+      return fullScreen;
+    }
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    /** Sets whether the pass is executed. Disabled passes cost nothing. */
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+  }
+
+  private final List<RenderPass> passes = new ArrayList<>();
+  private final Map<String, RenderPass> passesByName = new HashMap<>();
+  // Targets already covered by a full-screen pass in the current frame. A null element stands for
+  // the default framebuffer.
+  private final List<Framebuffer> coveredTargets = new ArrayList<>();
+  private int numberOfRejectedPasses;
+
+  /** Registers a pass which draws to any number of targets without covering them. */
+  public RenderPass addPass(String name, Stage stage, PassBody body) {
+    return add(new RenderPass(name, stage, /*fullScreen=*/ false, /*target=*/ null, body));
+  }
+
+  /**
+   * Registers a pass which overwrites every pixel of {@code target}, which may be null for the
+   * default framebuffer.
+   *
+   * @throws IllegalArgumentException if another full-screen pass already covers {@code target}
+   */
+  public RenderPass addFullScreenPass(
+      String name, Stage stage, Framebuffer target, PassBody body) {
+    for (RenderPass pass : passes) {
+      if (pass.fullScreen && pass.target == target) {
+        throw new IllegalArgumentException(
+            "Full-screen pass `" + name + "' duplicates full-screen pass `" + pass.name + "'");
+      }
+    }
+    return add(new RenderPass(name, stage, /*fullScreen=*/ true, target, body));
+  }
+
+  /** Returns the pass registered under {@code name}. */
+  public RenderPass getPass(String name) {
+    RenderPass pass = passesByName.get(name);
+    if (pass == null) {
+      throw new IllegalArgumentException("No render pass named " + name);
+    }
+    return pass;
+  }
+
+  /** Returns all passes in execution order. */
+  public List<RenderPass> getPasses() {
+    return passes;
+  }
+
+  /** Returns the number of full-screen passes skipped because their target was already covered. */
+  public int getNumberOfRejectedPasses() {
+    return numberOfRejectedPasses;
+  }
+
+  /** Marks the start of a frame. Must be called before the first stage of every frame. */
+  public void beginFrame() {
+    coveredTargets.clear();
+  }
+
+  /** Executes every enabled pass of {@code stage}. */
+  public void executeStage(SampleRender render, Stage stage) {
+    for (int i = 0; i < passes.size(); ++i) {
+      RenderPass pass = passes.get(i);
+      if (pass.stage != stage || !pass.enabled) {
+        continue;
+      }
+      if (pass.fullScreen) {
+        if (coveredTargets.contains(pass.target)) {
+          ++numberOfRejectedPasses;
+          if (!pass.hasWarnedAboutDuplicate) {
+            pass.hasWarnedAboutDuplicate = true;
+            Log.w(TAG, "Skipping duplicate full-screen pass " + pass.name);
+          }
+          continue;
+        }
+        coveredTargets.add(pass.target);
+      }
+      render.beginPass(pass.name);
+      try {
+        pass.body.draw(render);
+      } finally {
+        render.endPass();
+      }
+    }
+  }
+
+  /** Executes every enabled pass of the stages from {@code first} to {@code last} inclusive. */
+  public void executeStages(SampleRender render, Stage first, Stage last) {
+    for (Stage stage : Stage.values()) {
+      if (stage.ordinal() >= first.ordinal() && stage.ordinal() <= last.ordinal()) {
+        executeStage(render, stage);
+      }
+    }
+  }
+
+  private RenderPass add(RenderPass pass) {
+    if (passesByName.containsKey(pass.name)) {
+      throw new IllegalArgumentException("Render pass names must be unique: " + pass.name);
+    }
+    // Keep passes sorted by stage, preserving registration order within a stage.
+    int index = passes.size();
+    while (index > 0 && passes.get(index - 1).stage.ordinal() > pass.stage.ordinal()) {
+      --index;
+    }
+    passes.add(index, pass);
+    passesByName.put(pass.name, pass);
+    return pass;
+  }
+}
@@ -18,6 +18,7 @@ package com.google.ar.core.examples.java.common.samplerender;
 import android.content.res.AssetManager;
 import android.opengl.GLES30;
 import android.opengl.GLSurfaceView;
+import android.util.Log;
 
 import com.google.ar.core.exceptions.NotYetAvailableException;
 
@@ -28,11 +29,20 @@ import javax.microedition.khronos.opengles.GL10;
 public class SampleRender {
   private static final String TAG = SampleRender.class.getSimpleName();
 
+  private static final int FRAME_STATS_CAPACITY = 256;
+
   private final AssetManager assetManager;
 
   private int viewportWidth = 1;
   private int viewportHeight = 1;
 
+  private ProgramBinaryCache programBinaryCache;
+
+  private final FrameStats frameStats = new FrameStats(FRAME_STATS_CAPACITY);
+  private GpuTimer gpuTimer;
+  private int currentPass = -1;
+  private long currentPassStartNanos;
+
   /**
    * Constructs a SampleRender object and instantiates GLSurfaceView parameters.
    *
@@ -51,6 +61,8 @@ public class SampleRender {
           public void onSurfaceCreated(GL10 gl, EGLConfig config) {
             GLES30.glEnable(GLES30.GL_BLEND);
             GLError.maybeThrowGLException("Failed to enable blending", "glEnable");
+            // Any previous timer queries were lost along with the previous context.
+            gpuTimer = new GpuTimer();
             renderer.onSurfaceCreated(SampleRender.this);
           }
 
@@ -63,6 +75,8 @@ public class SampleRender {
 
           @Override
           public void onDrawFrame(GL10 gl) {
+            frameStats.beginFrame();
+            gpuTimer.beginFrame(frameStats);
             clear(/*framebuffer=*/ null, 0f, 0f, 0f, 1f);
             try {
               renderer.onDrawFrame(SampleRender.this);
@@ -70,6 +84,11 @@ public class SampleRender {
               e.printStackTrace();
             } catch (NotYetAvailableException e) {
               e.printStackTrace();
+            } finally {
+              if (currentPass != -1) {
+                endPass();
+              }
+              frameStats.endFrame();
             }
           }
         });
@@ -93,6 +112,37 @@ public class SampleRender {
     mesh.lowLevelDraw();
   }
 
+  /**
+   * Draw a {@link Mesh} with the specified {@link Shader} to the given {@link Framebuffer},
+   * touching only the pixels inside {@code scissorRect} ({x, y, width, height} in window
+   * coordinates, as for {@code glScissor}).
+   */
+  public void draw(Mesh mesh, Shader shader, Framebuffer framebuffer, int[] scissorRect) {
+    useFramebuffer(framebuffer);
+    GLES30.glEnable(GLES30.GL_SCISSOR_TEST);
+    GLError.maybeThrowGLException("Failed to enable scissor test", "glEnable");
+    try {
+      GLES30.glScissor(scissorRect[0], scissorRect[1], scissorRect[2], scissorRect[3]);
+      GLError.maybeThrowGLException("Failed to set scissor rectangle", "glScissor");
+      shader.lowLevelUse();
+      mesh.lowLevelDraw();
+    } finally {
+      GLES30.glDisable(GLES30.GL_SCISSOR_TEST);
+      GLError.maybeLogGLError(Log.WARN, TAG, "Failed to disable scissor test", "glDisable");
+    }
+  }
+
+  /**
+   * Draw the vertex ranges {@code [firsts[i], firsts[i] + counts[i])} of a non-indexed {@link Mesh}
+   * with the specified {@link Shader}, binding the shader and the vertex array only once.
+   */
+  public void drawRanges(
+      Mesh mesh, Shader shader, int[] firsts, int[] counts, int numberOfRanges) {
+    useFramebuffer(/*framebuffer=*/ null);
+    shader.lowLevelUse();
+    mesh.lowLevelDrawRanges(firsts, counts, numberOfRanges);
+  }
+
   /**
    * Clear the given framebuffer.
    *
@@ -109,6 +159,50 @@ public class SampleRender {
     GLError.maybeThrowGLException("Failed to clear framebuffer", "glClear");
   }
 
+  /**
+   * Sets the {@link ProgramBinaryCache} used by subsequently constructed {@link Shader}s to skip
+   * compiling and linking programs which have been built before. May be null to disable caching.
+   *
+   * <p>Call this before the GL surface is created so that shaders built in {@link
+   * Renderer#onSurfaceCreated} benefit from the cache.
+   */
+  public void setProgramBinaryCache(ProgramBinaryCache programBinaryCache) {
+    this.programBinaryCache = programBinaryCache;
+  }
+
+  /**
+   * Starts a named render pass. The CPU time until the matching {@link #endPass}, and the GPU time
+   * of the commands issued in between if {@code GL_EXT_disjoint_timer_query} is available, are
+   * recorded in {@link #getFrameStats}. Passes may not be nested; a pass which is still open at the
+   * end of the frame is ended automatically.
+   */
+  public void beginPass(String name) {
+    if (currentPass != -1) {
+      throw new IllegalStateException("Render passes may not be nested");
+    }
+    currentPass = frameStats.getPassIndex(name);
+    currentPassStartNanos = System.nanoTime();
+    gpuTimer.begin(currentPass);
+  }
+
+  /** Ends the render pass started with {@link #beginPass}. */
+  public void endPass() {
+    if (currentPass == -1) {
+      throw new IllegalStateException("No render pass to end");
+    }
+    gpuTimer.end();
+    frameStats.addPassCpuNanos(currentPass, System.nanoTime() - currentPassStartNanos);
+    currentPass = -1;
+  }
+
+  /**
+   * Returns the per-frame timing records. They may be read from any thread without synchronizing
+   * with the GL thread.
+   */
+  public FrameStats getFrameStats() {
+    return frameStats;
+  }
+
   /** Interface to be implemented for rendering callbacks. */
   public static interface Renderer {
     /**
@@ -138,6 +232,11 @@ public class SampleRender {
     return assetManager;
   }
 
+  /* package-private */
+  ProgramBinaryCache getProgramBinaryCache() {
+    return programBinaryCache;
+  }
+
   private void useFramebuffer(Framebuffer framebuffer) {
     int framebufferId;
     int viewportWidth;
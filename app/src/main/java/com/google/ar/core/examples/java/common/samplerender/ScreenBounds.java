@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import android.opengl.Matrix;
+
+/**
+ * Accumulates the screen-space bounding rectangle of a set of draws, so that later full-screen
+ * passes which only affect those pixels can be restricted to them with a scissor rectangle.
+ *
+ * <p>Bounds are conservative: a box that crosses the camera plane makes the bounds cover the whole
+ * screen.
+ */
+public class ScreenBounds {
+  // Normalized device coordinates, valid unless empty or full.
+  private float minX;
+  private float minY;
+  private float maxX;
+  private float maxY;
+  private boolean isEmpty;
+  private boolean isFull;
+
+  private final float[] corner = new float[4];
+  private final float[] clipCorner = new float[4];
+
+  public ScreenBounds() {
+    reset();
+  }
+
+  /** Empties the bounds, typically at the start of a frame. */
+  public void reset() {
+    isEmpty = true;
+    isFull = false;
+  }
+
+  /** Makes the bounds cover the whole screen, for draws whose extent is unknown. */
+  public void setFull() {
+    isEmpty = false;
+    isFull = true;
+  }
+
+  /** Returns true if nothing was added since the last {@link #reset}. */
+  public boolean isEmpty() {
+    return isEmpty;
+  }
+
+  /** Returns true if the bounds cover the whole screen. */
+  public boolean isFull() {
+    return isFull;
+  }
+
+  /**
+   * Adds the projection of an axis-aligned box given in model space.
+   *
+   * @param modelViewProjection the matrix the box is drawn with
+   * @param bounds {minX, minY, minZ, maxX, maxY, maxZ} as returned by {@link Mesh#getBounds}, or
+   *     null if unknown
+   */
+  public void addBox(float[] modelViewProjection, float[] bounds) {
+    if (isFull) {
+      return;
+    }
+    if (bounds == null) {
+      setFull();
+      return;
+    }
+    for (int i = 0; i < 8; ++i) {
+      corner[0] = (i & 1) == 0 ? bounds[0] : bounds[3];
+      corner[1] = (i & 2) == 0 ? bounds[1] : bounds[4];
+      corner[2] = (i & 4) == 0 ? bounds[2] : bounds[5];
+      corner[3] = 1.0f;
+      Matrix.multiplyMV(clipCorner, 0, modelViewProjection, 0, corner, 0);
+      if (clipCorner[3] <= 1e-6f) {
+        // Behind or on the camera plane; the projection is unbounded.
+        setFull();
+        return;
+      }
+      float x = clipCorner[0] / clipCorner[3];
+      float y = clipCorner[1] / clipCorner[3];
+      if (isEmpty) {
+        minX = maxX = x;
+        minY = maxY = y;
+        isEmpty = false;
+      } else {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+      }
+    }
+  }
+
+  /**
+   * Computes the rectangle covered by the bounds on a {@code width} x {@code height} target, grown
+   * by {@code marginPixels} and clamped to the target, as {x, y, width, height} in window
+   * coordinates suitable for {@code glScissor}.
+   *
+   * @return false if the rectangle is empty, in which case {@code rect} is not modified
+   */
+  public boolean getRect(int width, int height, int marginPixels, int[] rect) {
+    if (isEmpty) {
+      return false;
+    }
+    if (isFull) {
+      rect[0] = 0;
+      rect[1] = 0;
+      rect[2] = width;
+      rect[3] = height;
+      return true;
+    }
+    int left = Math.max(0, (int) Math.floor((minX * 0.5f + 0.5f) * width) - marginPixels);
+    int bottom = Math.max(0, (int) Math.floor((minY * 0.5f + 0.5f) * height) - marginPixels);
+    int right = Math.min(width, (int) Math.ceil((maxX * 0.5f + 0.5f) * width) + marginPixels);
+    int top = Math.min(height, (int) Math.ceil((maxY * 0.5f + 0.5f) * height) + marginPixels);
+    if (left >= right || bottom >= top) {
+      return false;
+    }
+    rect[0] = left;
+    rect[1] = bottom;
+    rect[2] = right - left;
+    rect[3] = top - bottom;
+    return true;
+  }
+}
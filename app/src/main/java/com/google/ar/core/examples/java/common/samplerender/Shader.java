@@ -73,6 +73,10 @@ public class Shader implements Closeable {
   private final Map<String, Integer> uniformLocations = new HashMap<>();
   private final Map<Integer, String> uniformNames = new HashMap<>();
 
+  // Uniform buffers indexed by the binding point assigned to their uniform block.
+  private final Map<Integer, UniformBuffer> uniformBuffers = new HashMap<>();
+  private final Map<String, Integer> uniformBlockBindings = new HashMap<>();
+
   private boolean depthTest = true;
   private boolean depthWrite = true;
   private BlendFactor sourceRgbBlend = BlendFactor.ONE;
@@ -94,16 +98,33 @@ public class Shader implements Closeable {
     int vertexShaderId = 0;
     int fragmentShaderId = 0;
     String definesCode = createShaderDefinesCode(defines);
+    String finalVertexShaderCode = insertShaderDefinesCode(vertexShaderCode, definesCode);
+    String finalFragmentShaderCode = insertShaderDefinesCode(fragmentShaderCode, definesCode);
+
+    long startNanos = System.nanoTime();
+    ProgramBinaryCache programBinaryCache = render.getProgramBinaryCache();
+    String cacheKey = null;
+    if (programBinaryCache != null) {
+      cacheKey = programBinaryCache.createKey(finalVertexShaderCode, finalFragmentShaderCode);
+      programId = programBinaryCache.loadProgram(cacheKey);
+      if (programId != 0) {
+        programBinaryCache.recordHit(System.nanoTime() - startNanos);
+        return;
+      }
+    }
+
     try {
-      vertexShaderId =
-          createShader(
-              GLES30.GL_VERTEX_SHADER, insertShaderDefinesCode(vertexShaderCode, definesCode));
-      fragmentShaderId =
-          createShader(
-              GLES30.GL_FRAGMENT_SHADER, insertShaderDefinesCode(fragmentShaderCode, definesCode));
+      vertexShaderId = createShader(GLES30.GL_VERTEX_SHADER, finalVertexShaderCode);
+      fragmentShaderId = createShader(GLES30.GL_FRAGMENT_SHADER, finalFragmentShaderCode);
 
       programId = GLES30.glCreateProgram();
       GLError.maybeThrowGLException("Shader program creation failed", "glCreateProgram");
+      if (programBinaryCache != null) {
+        GLES30.glProgramParameteri(
+            programId, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES30.GL_TRUE);
+        GLError.maybeLogGLError(
+            Log.WARN, TAG, "Failed to set program binary retrievable hint", "glProgramParameteri");
+      }
       GLES30.glAttachShader(programId, vertexShaderId);
       GLError.maybeThrowGLException("Failed to attach vertex shader", "glAttachShader");
       GLES30.glAttachShader(programId, fragmentShaderId);
@@ -119,6 +140,11 @@ public class Shader implements Closeable {
             Log.WARN, TAG, "Failed to retrieve shader program info log", "glGetProgramInfoLog");
         throw new GLException(0, "Shader link failed: " + infoLog);
       }
+
+      if (programBinaryCache != null) {
+        programBinaryCache.recordCompile(System.nanoTime() - startNanos);
+        programBinaryCache.storeProgram(programId, cacheKey);
+      }
     } catch (Throwable t) {
       close();
       throw t;
@@ -385,6 +411,30 @@ public class Shader implements Closeable {
     return this;
   }
 
+  /**
+   * Sets the {@link UniformBuffer} backing a named uniform block. Each block of this shader is
+   * assigned its own binding point, and the buffer is bound to it whenever the shader is used.
+   *
+   * @see <a
+   *     href="https://www.khronos.org/registry/OpenGL-Refpages/es3.0/html/glUniformBlockBinding.xhtml">glUniformBlockBinding</a>
+   */
+  public Shader setUniformBuffer(String blockName, UniformBuffer uniformBuffer) {
+    Integer bindingPoint = uniformBlockBindings.get(blockName);
+    if (bindingPoint == null) {
+      int blockIndex = GLES30.glGetUniformBlockIndex(programId, blockName);
+      GLError.maybeThrowGLException("Failed to find uniform block", "glGetUniformBlockIndex");
+      if (blockIndex == GLES30.GL_INVALID_INDEX) {
+        throw new IllegalArgumentException("Shader uniform block does not exist: " + blockName);
+      }
+      bindingPoint = uniformBlockBindings.size();
+      GLES30.glUniformBlockBinding(programId, blockIndex, bindingPoint);
+      GLError.maybeThrowGLException("Failed to set uniform block binding", "glUniformBlockBinding");
+      uniformBlockBindings.put(blockName, bindingPoint);
+    }
+    uniformBuffers.put(bindingPoint, uniformBuffer);
+    return this;
+  }
+
   /**
    * Activates the shader. Don't call this directly unless you are doing low level OpenGL code;
    * instead, prefer {@link SampleRender#draw}.
@@ -411,6 +461,15 @@ public class Shader implements Closeable {
       GLES30.glDisable(GLES30.GL_DEPTH_TEST);
       GLError.maybeThrowGLException("Failed to disable depth test", "glDisable");
     }
+    // Binding points are global state, so they must be rebound every time the shader is used.
+    for (Map.Entry<Integer, UniformBuffer> entry : uniformBuffers.entrySet()) {
+      int bufferId = entry.getValue().getBufferId();
+      if (bufferId == 0) {
+        throw new IllegalStateException("Tried to draw with freed uniform buffer");
+      }
+      GLES30.glBindBufferBase(GLES30.GL_UNIFORM_BUFFER, entry.getKey(), bufferId);
+      GLError.maybeThrowGLException("Failed to bind uniform buffer", "glBindBufferBase");
+    }
     try {
       // Remove all non-texture uniforms from the map after setting them, since they're stored as
       // part of the program.
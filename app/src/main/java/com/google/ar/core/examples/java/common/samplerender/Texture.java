@@ -30,6 +30,9 @@ public class Texture implements Closeable {
 
   private final int[] textureId = {0};
   private final Target target;
+  private final WrapMode wrapMode;
+  private final boolean useMipmaps;
+  private boolean hasImmutableStorage;
 
   /**
    * Describes the way the texture's edges are rendered.
@@ -98,7 +101,12 @@ public class Texture implements Closeable {
 
   public Texture(SampleRender render, Target target, WrapMode wrapMode, boolean useMipmaps) {
     this.target = target;
+    this.wrapMode = wrapMode;
+    this.useMipmaps = useMipmaps;
+    createTextureObject();
+  }
 
+  private void createTextureObject() {
     GLES30.glGenTextures(1, textureId, 0);
     GLError.maybeThrowGLException("Texture creation failed", "glGenTextures");
 
@@ -122,6 +130,31 @@ public class Texture implements Closeable {
     }
   }
 
+  /**
+   * Allocates immutable storage of the given size for a {@link Target#TEXTURE_2D} texture without
+   * mipmaps, to be filled with {@code glTexSubImage2D}. Streaming into immutable storage avoids
+   * re-specifying the texture, and the driver's validation and reallocation that come with it, on
+   * every update.
+   *
+   * <p>Immutable storage cannot be resized, so calling this again replaces the underlying texture
+   * object. The {@link Texture} itself, and any {@link Shader} it was set on, remain valid.
+   */
+  public void allocateImmutableStorage(int internalFormat, int width, int height) {
+    if (target != Target.TEXTURE_2D || useMipmaps) {
+      throw new IllegalStateException(
+          "Immutable storage is only supported for 2D textures without mipmaps");
+    }
+    if (hasImmutableStorage) {
+      close();
+      createTextureObject();
+    }
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, textureId[0]);
+    GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture");
+    GLES30.glTexStorage2D(GLES30.GL_TEXTURE_2D, /*levels=*/ 1, internalFormat, width, height);
+    GLError.maybeThrowGLException("Failed to allocate texture storage", "glTexStorage2D");
+    hasImmutableStorage = true;
+  }
+
   /** Create a texture from the given asset file name. */
   public static Texture createFromAsset(
       SampleRender render, String assetFileName, WrapMode wrapMode, ColorFormat colorFormat)
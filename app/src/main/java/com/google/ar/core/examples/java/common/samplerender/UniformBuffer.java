@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import android.opengl.GLES30;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * A block of uniform data stored GPU-side.
+ *
+ * <p>A {@link UniformBuffer} is attached to a named uniform block of a {@link Shader} using {@link
+ * Shader#setUniformBuffer}. The contents must follow the memory layout declared by the block, which
+ * is typically {@code layout(std140)}.
+ *
+ * @see <a
+ *     href="https://www.khronos.org/registry/OpenGL-Refpages/es3.0/html/glBindBufferBase.xhtml">glBindBufferBase</a>
+ */
+public class UniformBuffer implements Closeable {
+  private final GpuBuffer buffer;
+
+  /**
+   * Construct a {@link UniformBuffer} populated with initial data.
+   *
+   * <p>The GPU buffer will be filled with the bytes in the <i>direct</i> buffer {@code data},
+   * starting from the beginning of the buffer (not the current cursor position). The cursor will be
+   * left in an undefined position after this function returns.
+   *
+   * <p>The {@code data} buffer may be null, in which case an empty buffer is constructed instead.
+   */
+  public UniformBuffer(SampleRender render, ByteBuffer data) {
+    buffer = new GpuBuffer(GLES30.GL_UNIFORM_BUFFER, /*numberOfBytesPerEntry=*/ 1, data);
+  }
+
+  /**
+   * Populate with new data.
+   *
+   * <p>The entire buffer is replaced by the contents of the <i>direct</i> buffer {@code data}
+   * starting from the beginning of the buffer, not the current cursor position. The cursor will be
+   * left in an undefined position after this function returns.
+   *
+   * <p>The GPU buffer is reallocated automatically if necessary.
+   */
+  public void set(ByteBuffer data) {
+    buffer.set(data);
+  }
+
+  @Override
+  public void close() {
+    buffer.free();
+  }
+
+  /* package-private */
+  int getBufferId() {
+    return buffer.getBufferId();
+  }
+
+  /* package-private */
+  int getSize() {
+    return buffer.getSize();
+  }
+}
@@ -79,6 +79,19 @@ public class VertexBuffer implements Closeable {
     buffer.set(entries);
   }
 
+  /**
+   * Uploads vertices {@code [firstVertex, firstVertex + numberOfVertices)} of the <i>direct</i>
+   * buffer {@code entries} to the same vertices of the GPU buffer, leaving the others untouched.
+   * Unlike {@link #set}, this never reallocates: the range must lie within the vertices already
+   * uploaded. The cursor of {@code entries} will be left in an undefined position.
+   */
+  public void setRange(FloatBuffer entries, int firstVertex, int numberOfVertices) {
+    buffer.setRange(
+        entries,
+        firstVertex * numberOfEntriesPerVertex,
+        numberOfVertices * numberOfEntriesPerVertex);
+  }
+
   @Override
   public void close() {
     buffer.free();
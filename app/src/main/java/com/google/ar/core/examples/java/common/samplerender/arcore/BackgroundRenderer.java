@@ -20,8 +20,10 @@ import android.opengl.GLES30;
 import com.google.ar.core.Coordinates2d;
 import com.google.ar.core.Frame;
 import com.google.ar.core.examples.java.common.samplerender.Framebuffer;
+import com.google.ar.core.examples.java.common.samplerender.GLError;
 import com.google.ar.core.examples.java.common.samplerender.Mesh;
 import com.google.ar.core.examples.java.common.samplerender.SampleRender;
+import com.google.ar.core.examples.java.common.samplerender.ScreenBounds;
 import com.google.ar.core.examples.java.common.samplerender.Shader;
 import com.google.ar.core.examples.java.common.samplerender.Texture;
 import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
@@ -39,6 +41,13 @@ import java.util.HashMap;
 public class BackgroundRenderer {
   private static final String TAG = BackgroundRenderer.class.getSimpleName();
 
+  // The occlusion mask is computed at 1/OCCLUSION_MASK_DOWNSAMPLE of the width and height of the
+  // virtual scene framebuffer when low resolution occlusion is enabled.
+  private static final int OCCLUSION_MASK_DOWNSAMPLE = 2;
+
+  // Extra pixels around the virtual content bounds, covering rasterization and filtering.
+  private static final int SCISSOR_MARGIN_PIXELS = 2;
+
   // components_per_vertex * number_of_vertices * float_size
   private static final int COORDS_BUFFER_SIZE = 2 * 4 * 4;
 
@@ -64,21 +73,36 @@ public class BackgroundRenderer {
 
   private final Mesh mesh;
   private final VertexBuffer cameraTexCoordsVertexBuffer;
+  private final Shader cameraBackgroundShader;
+  private final Shader depthVisualizationShader;
+  private final Shader plainOcclusionShader;
+  private final Shader depthOcclusionShader;
+  private final Shader occlusionMaskShader;
+  private final Shader upsampledOcclusionShader;
+  private final Framebuffer occlusionMaskFramebuffer;
   private Shader backgroundShader;
   private Shader occlusionShader;
   private final Texture cameraDepthTexture;
   private final Texture cameraColorTexture;
 
-  private boolean useDepthVisualization;
+  private final int[] scissorRect = new int[4];
+
+  // Size of the depth texture storage, 0 until the first depth image arrives.
+  private int depthTextureWidth;
+  private int depthTextureHeight;
+
   private boolean useOcclusion;
-  private float aspectRatio;
+  private boolean useLowResolutionOcclusion;
 
   /**
    * Allocates and initializes OpenGL resources needed by the background renderer. Must be called
    * during a {@link SampleRender.Renderer} callback, typically in {@link
    * SampleRender.Renderer#onSurfaceCreated()}.
+   *
+   * <p>Every shader variant selectable through {@link #setUseDepthVisualization} and {@link
+   * #setUseOcclusion} is compiled here, so that toggling them later never stalls a frame.
    */
-  public BackgroundRenderer(SampleRender render) {
+  public BackgroundRenderer(SampleRender render) throws IOException {
     cameraColorTexture =
         new Texture(
             render,
@@ -106,69 +130,89 @@ public class BackgroundRenderer {
     };
     mesh =
         new Mesh(render, Mesh.PrimitiveMode.TRIANGLE_STRIP, /*indexBuffer=*/ null, vertexBuffers);
+
+    cameraBackgroundShader =
+        Shader.createFromAssets(
+                render,
+                "shaders/background_show_camera.vert",
+                "shaders/background_show_camera.frag",
+                /*defines=*/ null)
+            .setTexture("u_CameraColorTexture", cameraColorTexture)
+            .setDepthTest(false)
+            .setDepthWrite(false);
+    depthVisualizationShader =
+        Shader.createFromAssets(
+                render,
+                "shaders/background_show_depth_color_visualization.vert",
+                "shaders/background_show_depth_color_visualization.frag",
+                /*defines=*/ null)
+            .setTexture("u_CameraDepthTexture", cameraDepthTexture)
+            .setDepthTest(false)
+            .setDepthWrite(false);
+    plainOcclusionShader =
+        createOcclusionShader(render, /*useOcclusion=*/ false, OcclusionPass.FULL_RESOLUTION);
+    depthOcclusionShader =
+        createOcclusionShader(render, /*useOcclusion=*/ true, OcclusionPass.FULL_RESOLUTION)
+            .setTexture("u_CameraDepthTexture", cameraDepthTexture);
+    occlusionMaskShader =
+        createOcclusionShader(render, /*useOcclusion=*/ true, OcclusionPass.MASK)
+            .setTexture("u_CameraDepthTexture", cameraDepthTexture)
+            // The mask replaces the framebuffer contents.
+            .setBlend(Shader.BlendFactor.ONE, Shader.BlendFactor.ZERO);
+    occlusionMaskFramebuffer = new Framebuffer(render, /*width=*/ 1, /*height=*/ 1);
+    upsampledOcclusionShader =
+        createOcclusionShader(render, /*useOcclusion=*/ true, OcclusionPass.UPSAMPLE)
+            .setTexture("u_OcclusionMaskTexture", occlusionMaskFramebuffer.getColorTexture());
+
+    setUseDepthVisualization(false);
+    setUseOcclusion(false);
+  }
+
+  /** The three ways {@code occlusion.frag} is compiled. */
+  private enum OcclusionPass {
+    // Evaluates the blurred occlusion for every screen pixel while compositing.
+    FULL_RESOLUTION,
+    // Writes the blurred occlusion and virtual scene depth into the reduced resolution mask.
+    MASK,
+    // Composites with the mask, upsampled with a depth-aware (bilateral) filter.
+    UPSAMPLE,
   }
 
   /**
    * Sets whether the background camera image should be replaced with a depth visualization instead.
-   * This reloads the corresponding shader code, and must be called on the GL thread.
+   * Both shader variants are compiled up front, so this only selects which one is drawn.
    */
-  public void setUseDepthVisualization(SampleRender render, boolean useDepthVisualization)
-      throws IOException {
-    if (backgroundShader != null) {
-      if (this.useDepthVisualization == useDepthVisualization) {
-        return;
-      }
-      backgroundShader.close();
-      backgroundShader = null;
-      this.useDepthVisualization = useDepthVisualization;
-    }
-    if (useDepthVisualization) {
-      backgroundShader =
-          Shader.createFromAssets(
-                  render,
-                  "shaders/background_show_depth_color_visualization.vert",
-                  "shaders/background_show_depth_color_visualization.frag",
-                  /*defines=*/ null)
-              .setTexture("u_CameraDepthTexture", cameraDepthTexture)
-              .setDepthTest(false)
-              .setDepthWrite(false);
-    } else {
-      backgroundShader =
-          Shader.createFromAssets(
-                  render,
-                  "shaders/background_show_camera.vert",
-                  "shaders/background_show_camera.frag",
-                  /*defines=*/ null)
-              .setTexture("u_CameraColorTexture", cameraColorTexture)
-              .setDepthTest(false)
-              .setDepthWrite(false);
-    }
+  public void setUseDepthVisualization(boolean useDepthVisualization) {
+    backgroundShader = useDepthVisualization ? depthVisualizationShader : cameraBackgroundShader;
   }
 
   /**
-   * Sets whether to use depth for occlusion. This reloads the shader code with new {@code
-   * #define}s, and must be called on the GL thread.
+   * Sets whether to use depth for occlusion. Both {@code USE_OCCLUSION} variants of the occlusion
+   * shader are compiled up front, so this only selects which one is drawn.
    */
-  public void setUseOcclusion(SampleRender render, boolean useOcclusion) throws IOException {
-    if (occlusionShader != null) {
-      if (this.useOcclusion == useOcclusion) {
-        return;
-      }
-      occlusionShader.close();
-      occlusionShader = null;
-      this.useOcclusion = useOcclusion;
-    }
-    HashMap<String, String> defines = new HashMap<>();
-    defines.put("USE_OCCLUSION", useOcclusion ? "1" : "0");
-    occlusionShader =
-        Shader.createFromAssets(render, "shaders/occlusion.vert", "shaders/occlusion.frag", defines)
-            .setDepthTest(false)
-            .setDepthWrite(false)
-            .setBlend(Shader.BlendFactor.SRC_ALPHA, Shader.BlendFactor.ONE_MINUS_SRC_ALPHA);
-    if (useOcclusion) {
-      occlusionShader
-          .setTexture("u_CameraDepthTexture", cameraDepthTexture)
-          .setFloat("u_DepthAspectRatio", aspectRatio);
+  public void setUseOcclusion(boolean useOcclusion) {
+    this.useOcclusion = useOcclusion;
+    updateOcclusionShader();
+  }
+
+  /**
+   * Sets whether depth occlusion is computed at reduced resolution by {@link #drawOcclusionMask}
+   * and upsampled by {@link #drawVirtualScene}, instead of being evaluated for every screen pixel.
+   * The camera depth image is far smaller than the screen, so this trades little quality for a
+   * much cheaper composite. Has no effect unless {@link #setUseOcclusion} is enabled.
+   */
+  public void setUseLowResolutionOcclusion(boolean useLowResolutionOcclusion) {
+    this.useLowResolutionOcclusion = useLowResolutionOcclusion;
+    updateOcclusionShader();
+  }
+
+  private void updateOcclusionShader() {
+    if (!useOcclusion) {
+      occlusionShader = plainOcclusionShader;
+    } else if (useLowResolutionOcclusion) {
+      occlusionShader = upsampledOcclusionShader;
+    } else {
+      occlusionShader = depthOcclusionShader;
     }
   }
 
@@ -191,23 +235,46 @@ public class BackgroundRenderer {
     }
   }
 
-  /** Update depth texture with Image contents. */
+  /**
+   * Update depth texture with Image contents. Texture storage is only allocated when the image
+   * size changes; otherwise the existing storage is overwritten.
+   */
   public void updateCameraDepthTexture(Image image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    if (width != depthTextureWidth || height != depthTextureHeight) {
+      cameraDepthTexture.allocateImmutableStorage(GLES30.GL_RG8, width, height);
+      depthTextureWidth = width;
+      depthTextureHeight = height;
+      float aspectRatio = (float) width / (float) height;
+      depthOcclusionShader.setFloat("u_DepthAspectRatio", aspectRatio);
+      occlusionMaskShader.setFloat("u_DepthAspectRatio", aspectRatio);
+    }
+
+    Image.Plane plane = image.getPlanes()[0];
+    ByteBuffer buffer = plane.getBuffer();
     // SampleRender abstraction leaks here
     GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, cameraDepthTexture.getTextureId());
-    GLES30.glTexImage2D(
-        GLES30.GL_TEXTURE_2D,
-        0,
-        GLES30.GL_RG8,
-        image.getWidth(),
-        image.getHeight(),
-        0,
-        GLES30.GL_RG,
-        GLES30.GL_UNSIGNED_BYTE,
-        image.getPlanes()[0].getBuffer());
-    if (useOcclusion) {
-      aspectRatio = (float) image.getWidth() / (float) image.getHeight();
-      occlusionShader.setFloat("u_DepthAspectRatio", aspectRatio);
+    GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture");
+    // Rows may be padded; RG8 pixels are two bytes, so rows are always 2-byte aligned.
+    GLES30.glPixelStorei(
+        GLES30.GL_UNPACK_ROW_LENGTH, plane.getRowStride() / plane.getPixelStride());
+    GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 2);
+    try {
+      GLES30.glTexSubImage2D(
+          GLES30.GL_TEXTURE_2D,
+          /*level=*/ 0,
+          /*xoffset=*/ 0,
+          /*yoffset=*/ 0,
+          width,
+          height,
+          GLES30.GL_RG,
+          GLES30.GL_UNSIGNED_BYTE,
+          buffer);
+      GLError.maybeThrowGLException("Failed to update depth texture", "glTexSubImage2D");
+    } finally {
+      GLES30.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, 0);
+      GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 4);
     }
   }
 
@@ -221,6 +288,54 @@ public class BackgroundRenderer {
     render.draw(mesh, backgroundShader);
   }
 
+  /**
+   * Computes the reduced resolution occlusion mask for {@link #drawVirtualScene}. Must be called
+   * after the virtual scene is rendered and before {@link #drawVirtualScene}; does nothing unless
+   * both {@link #setUseOcclusion} and {@link #setUseLowResolutionOcclusion} are enabled.
+   */
+  public void drawOcclusionMask(
+      SampleRender render, Framebuffer virtualSceneFramebuffer, float zNear, float zFar) {
+    drawOcclusionMask(render, virtualSceneFramebuffer, zNear, zFar, /*virtualSceneBounds=*/ null);
+  }
+
+  /**
+   * Like {@link #drawOcclusionMask(SampleRender, Framebuffer, float, float)}, but only computes
+   * the mask where {@code virtualSceneBounds} says there is virtual content. The bounds must be the
+   * same as those passed to {@link #drawVirtualScene(SampleRender, Framebuffer, float, float,
+   * ScreenBounds)}. A null {@code virtualSceneBounds} covers the whole screen.
+   */
+  public void drawOcclusionMask(
+      SampleRender render,
+      Framebuffer virtualSceneFramebuffer,
+      float zNear,
+      float zFar,
+      ScreenBounds virtualSceneBounds) {
+    if (!useOcclusion || !useLowResolutionOcclusion) {
+      return;
+    }
+    if (virtualSceneBounds != null && virtualSceneBounds.isEmpty()) {
+      return;
+    }
+    int width = Math.max(1, virtualSceneFramebuffer.getWidth() / OCCLUSION_MASK_DOWNSAMPLE);
+    int height = Math.max(1, virtualSceneFramebuffer.getHeight() / OCCLUSION_MASK_DOWNSAMPLE);
+    if (occlusionMaskFramebuffer.getWidth() != width
+        || occlusionMaskFramebuffer.getHeight() != height) {
+      occlusionMaskFramebuffer.resize(width, height);
+    }
+    occlusionMaskShader
+        .setTexture("u_VirtualSceneColorTexture", virtualSceneFramebuffer.getColorTexture())
+        .setTexture("u_VirtualSceneDepthTexture", virtualSceneFramebuffer.getDepthTexture())
+        .setFloat("u_ZNear", zNear)
+        .setFloat("u_ZFar", zFar);
+    if (virtualSceneBounds == null || virtualSceneBounds.isFull()) {
+      render.draw(mesh, occlusionMaskShader, occlusionMaskFramebuffer);
+    } else if (virtualSceneBounds.getRect(
+        width, height, /*marginPixels=*/ SCISSOR_MARGIN_PIXELS, scissorRect)) {
+      // The upsampling reads the mask texels next to the content, so those are included too.
+      render.draw(mesh, occlusionMaskShader, occlusionMaskFramebuffer, scissorRect);
+    }
+  }
+
   /**
    * Draws the virtual scene. Any objects rendered in the given {@link Framebuffer} will be drawn
    * given the previously specified {@link OcclusionMode}.
@@ -231,6 +346,25 @@ public class BackgroundRenderer {
    */
   public void drawVirtualScene(
       SampleRender render, Framebuffer virtualSceneFramebuffer, float zNear, float zFar) {
+    drawVirtualScene(render, virtualSceneFramebuffer, zNear, zFar, /*virtualSceneBounds=*/ null);
+  }
+
+  /**
+   * Like {@link #drawVirtualScene(SampleRender, Framebuffer, float, float)}, but only composites
+   * the pixels inside {@code virtualSceneBounds}, the screen bounds of everything drawn to {@code
+   * virtualSceneFramebuffer} this frame. The composite then costs in proportion to the on-screen
+   * size of the virtual content rather than the display resolution, and nothing at all if there is
+   * none. A null {@code virtualSceneBounds} covers the whole screen.
+   */
+  public void drawVirtualScene(
+      SampleRender render,
+      Framebuffer virtualSceneFramebuffer,
+      float zNear,
+      float zFar,
+      ScreenBounds virtualSceneBounds) {
+    if (virtualSceneBounds != null && virtualSceneBounds.isEmpty()) {
+      return;
+    }
     occlusionShader.setTexture(
         "u_VirtualSceneColorTexture", virtualSceneFramebuffer.getColorTexture());
     if (useOcclusion) {
@@ -239,7 +373,15 @@ public class BackgroundRenderer {
           .setFloat("u_ZNear", zNear)
           .setFloat("u_ZFar", zFar);
     }
-    render.draw(mesh, occlusionShader);
+    if (virtualSceneBounds == null || virtualSceneBounds.isFull()) {
+      render.draw(mesh, occlusionShader);
+    } else if (virtualSceneBounds.getRect(
+        virtualSceneFramebuffer.getWidth(),
+        virtualSceneFramebuffer.getHeight(),
+        /*marginPixels=*/ SCISSOR_MARGIN_PIXELS,
+        scissorRect)) {
+      render.draw(mesh, occlusionShader, /*framebuffer=*/ null, scissorRect);
+    }
   }
 
   /** Return the camera color texture generated by this object. */
@@ -251,4 +393,17 @@ public class BackgroundRenderer {
   public Texture getCameraDepthTexture() {
     return cameraDepthTexture;
   }
+
+  private static Shader createOcclusionShader(
+      SampleRender render, boolean useOcclusion, OcclusionPass pass) throws IOException {
+    HashMap<String, String> defines = new HashMap<>();
+    defines.put("USE_OCCLUSION", useOcclusion ? "1" : "0");
+    defines.put("OCCLUSION_MASK_PASS", pass == OcclusionPass.MASK ? "1" : "0");
+    defines.put("USE_OCCLUSION_MASK", pass == OcclusionPass.UPSAMPLE ? "1" : "0");
+    return Shader.createFromAssets(
+            render, "shaders/occlusion.vert", "shaders/occlusion.frag", defines)
+        .setDepthTest(false)
+        .setDepthWrite(false)
+        .setBlend(Shader.BlendFactor.SRC_ALPHA, Shader.BlendFactor.ONE_MINUS_SRC_ALPHA);
+  }
 }
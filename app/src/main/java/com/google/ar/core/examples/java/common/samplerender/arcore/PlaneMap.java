@@ -0,0 +1,273 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender.arcore;
+
+import android.util.Log;
+import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
+import com.google.ar.core.TrackingState;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Saves detected planes to a compact binary file and streams them back in on a background thread.
+ *
+ * <p>The file holds, for each plane that was tracking when it was saved, the center pose, the
+ * extents and the boundary polygon. It is enough for {@link PlaneRenderer#addSavedPlane} to show a
+ * preview of known surfaces before ARCore has detected them again. Poses are in the world frame of
+ * the session that saved them, which a later session cannot recover, so the preview is drawn as a
+ * map by {@link PlaneRenderer#drawSavedPlaneOverview} rather than over the camera image.
+ */
+public class PlaneMap {
+  private static final String TAG = PlaneMap.class.getSimpleName();
+
+  // Bump this whenever the file layout changes.
+  private static final int FILE_VERSION = 1;
+  private static final int FILE_MAGIC = 0x504c4d31; // "PLM1"
+  // Sanity limits so that a corrupt file cannot trigger huge allocations.
+  private static final int MAX_PLANES = 4096;
+  private static final int MAX_POLYGON_FLOATS = 2 * 4096;
+
+  // Runs the saves started with saveAsync one at a time and in order, since they all write the same
+  // temporary file.
+  private static final ExecutorService saveExecutor =
+      Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "PlaneMapWriter"));
+
+  /** An immutable copy of the plane data needed to render it. */
+  public static class SavedPlane {
+    private final Pose centerPose;
+    private final float extentX;
+    private final float extentZ;
+    private final float[] polygon;
+
+    public SavedPlane(Pose centerPose, float extentX, float extentZ, float[] polygon) {
+      this.centerPose = centerPose;
+      this.extentX = extentX;
+      this.extentZ = extentZ;
+      this.polygon = polygon;
+    }
+
+    /** Copies the current state of {@code plane}. */
+    public static SavedPlane fromPlane(Plane plane) {
+      FloatBuffer boundary = plane.getPolygon();
+      float[] polygon = new float[boundary == null ? 0 : boundary.limit()];
+      if (boundary != null) {
+        boundary.rewind();
+        boundary.get(polygon);
+      }
+      return new SavedPlane(
+          plane.getCenterPose(), plane.getExtentX(), plane.getExtentZ(), polygon);
+    }
+
+    public Pose getCenterPose() {
+      return centerPose;
+    }
+
+    public float getExtentX() {
+      return extentX;
+    }
+
+    public float getExtentZ() {
+      return extentZ;
+    }
+
+    /** Returns the boundary polygon as (x, z) pairs in the plane's local frame. */
+    public float[] getPolygon() {
+      return polygon;
+    }
+  }
+
+  private PlaneMap() {}
+
+  /**
+   * Copies the planes that are tracking and not subsumed by another plane. Cheap enough to call on
+   * the thread that owns the session; the copies can then be written on any thread with {@link
+   * #save}.
+   */
+  public static List<SavedPlane> copyTrackedPlanes(Collection<Plane> planes) {
+    List<SavedPlane> savedPlanes = new ArrayList<>();
+    for (Plane plane : planes) {
+      if (plane.getTrackingState() == TrackingState.TRACKING && plane.getSubsumedBy() == null) {
+        savedPlanes.add(SavedPlane.fromPlane(plane));
+      }
+    }
+    return savedPlanes;
+  }
+
+  /**
+   * Writes {@code planes} to {@code file}, replacing it atomically so that a crash never leaves a
+   * truncated map behind. Calls for the same file must not overlap, since they share the temporary
+   * file; use {@link #saveAsync} to save from a background thread.
+   */
+  public static void save(File file, List<SavedPlane> planes) throws IOException {
+    int numberOfPlanes = Math.min(planes.size(), MAX_PLANES);
+    File temporaryFile = new File(file.getPath() + ".tmp");
+    try (DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+      output.writeInt(FILE_MAGIC);
+      output.writeInt(FILE_VERSION);
+      output.writeInt(numberOfPlanes);
+      for (int i = 0; i < numberOfPlanes; ++i) {
+        SavedPlane plane = planes.get(i);
+        Pose pose = plane.getCenterPose();
+        output.writeFloat(pose.tx());
+        output.writeFloat(pose.ty());
+        output.writeFloat(pose.tz());
+        output.writeFloat(pose.qx());
+        output.writeFloat(pose.qy());
+        output.writeFloat(pose.qz());
+        output.writeFloat(pose.qw());
+        output.writeFloat(plane.getExtentX());
+        output.writeFloat(plane.getExtentZ());
+        float[] polygon = plane.getPolygon();
+        int numberOfFloats = Math.min(polygon.length, MAX_POLYGON_FLOATS) & ~1;
+        output.writeInt(numberOfFloats);
+        for (int j = 0; j < numberOfFloats; ++j) {
+          output.writeFloat(polygon[j]);
+        }
+      }
+    } catch (IOException e) {
+      temporaryFile.delete();
+      throw e;
+    }
+    if (!temporaryFile.renameTo(file)) {
+      temporaryFile.delete();
+      throw new IOException("Failed to replace plane map " + file);
+    }
+  }
+
+  /**
+   * Writes {@code planes} to {@code file} with {@link #save} on a background thread. Saves are
+   * queued and run one after another, so the last call determines the contents of the file.
+   * Failures are logged.
+   */
+  public static void saveAsync(File file, List<SavedPlane> planes) {
+    saveExecutor.execute(
+        () -> {
+          try {
+            save(file, planes);
+            Log.i(TAG, "Saved " + planes.size() + " planes to " + file);
+          } catch (IOException e) {
+            Log.w(TAG, "Failed to save plane map " + file, e);
+          }
+        });
+  }
+
+  /**
+   * Starts reading {@code file} on a background thread. Planes become available from {@link
+   * Loader#poll} one at a time as they are read, so that the caller can consume them
+   * incrementally, for example a few per frame.
+   */
+  public static Loader load(File file) {
+    Loader loader = new Loader(file);
+    new Thread(loader, "PlaneMapLoader").start();
+    return loader;
+  }
+
+  /** Streams planes from a plane map file. See {@link #load}. */
+  public static class Loader implements Runnable {
+    private final File file;
+    private final ConcurrentLinkedQueue<SavedPlane> planes = new ConcurrentLinkedQueue<>();
+    private volatile boolean finished;
+    private volatile boolean cancelled;
+
+    private Loader(File file) {
+      this.file = file;
+    }
+
+    /**
+     * Returns the next loaded plane, or null if none is available yet. May be called from any
+     * thread.
+     */
+    public SavedPlane poll() {
+      return planes.poll();
+    }
+
+    /** Returns true once the whole file was read, or reading failed or was cancelled. */
+    public boolean isFinished() {
+      return finished;
+    }
+
+    /** Stops reading and drops planes that were not polled yet. */
+    public void cancel() {
+      cancelled = true;
+      planes.clear();
+    }
+
+    @Override
+    public void run() {
+      try {
+        read();
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to read plane map " + file, e);
+      } finally {
+        finished = true;
+      }
+    }
+
+    private void read() throws IOException {
+      if (!file.isFile()) {
+        return;
+      }
+      try (DataInputStream input =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+        if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+          throw new IOException("Unrecognized plane map file header");
+        }
+        int numberOfPlanes = input.readInt();
+        if (numberOfPlanes < 0 || numberOfPlanes > MAX_PLANES) {
+          throw new IOException("Invalid number of planes: " + numberOfPlanes);
+        }
+        for (int i = 0; i < numberOfPlanes && !cancelled; ++i) {
+          float[] translation = new float[3];
+          for (int j = 0; j < 3; ++j) {
+            translation[j] = input.readFloat();
+          }
+          float[] rotation = new float[4];
+          for (int j = 0; j < 4; ++j) {
+            rotation[j] = input.readFloat();
+          }
+          float extentX = input.readFloat();
+          float extentZ = input.readFloat();
+          int numberOfFloats = input.readInt();
+          if (numberOfFloats < 0
+              || numberOfFloats > MAX_POLYGON_FLOATS
+              || numberOfFloats % 2 != 0) {
+            throw new IOException("Invalid plane polygon size: " + numberOfFloats);
+          }
+          float[] polygon = new float[numberOfFloats];
+          for (int j = 0; j < numberOfFloats; ++j) {
+            polygon[j] = input.readFloat();
+          }
+          planes.add(new SavedPlane(new Pose(translation, rotation), extentX, extentZ, polygon));
+        }
+      }
+    }
+  }
+}
@@ -27,15 +27,15 @@ import com.google.ar.core.examples.java.common.samplerender.Shader;
 import com.google.ar.core.examples.java.common.samplerender.Shader.BlendFactor;
 import com.google.ar.core.examples.java.common.samplerender.Texture;
 import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -47,11 +47,15 @@ public class PlaneRenderer {
   // Shader names.
   private static final String VERTEX_SHADER_NAME = "shaders/plane.vert";
   private static final String FRAGMENT_SHADER_NAME = "shaders/plane.frag";
+  private static final String BATCHED_VERTEX_SHADER_NAME = "shaders/plane_batched.vert";
   private static final String TEXTURE_NAME = "models/trigrid.png";
 
   private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
   private static final int BYTES_PER_INT = Integer.SIZE / 8;
   private static final int COORDS_PER_VERTEX = 3; // x, z, alpha
+  private static final int BATCHED_COORDS_PER_VERTEX = 4; // x, y, z, alpha
+  private static final int BATCHED_UV_MATRIX_ENTRIES = 4;
+  private static final int BATCHED_NORMAL_ENTRIES = 3;
 
   private static final int VERTS_PER_BOUNDARY_VERT = 2;
   private static final int INDICES_PER_BOUNDARY_VERT = 3;
@@ -77,10 +81,9 @@ public class PlaneRenderer {
   // occlusionShrink: occluded planes will fade out between alpha = 0 and 1/occlusionShrink
   private static final float[] GRID_CONTROL = {0.2f, 0.4f, 2.0f, 1.5f};
 
-  private final Mesh mesh;
-  private final IndexBuffer indexBufferObject;
-  private final VertexBuffer vertexBufferObject;
+  private final SampleRender render;
   private final Shader shader;
+  private final Shader batchedShader;
 
   private FloatBuffer vertexBuffer =
       ByteBuffer.allocateDirect(INITIAL_VERTEX_BUFFER_SIZE_BYTES)
@@ -92,6 +95,7 @@ public class PlaneRenderer {
           .asIntBuffer();
 
   // Temporary lists/matrices allocated here to reduce number of allocations for each frame.
+  private final float[] cameraMatrix = new float[16];
   private final float[] viewMatrix = new float[16];
   private final float[] modelMatrix = new float[16];
   private final float[] modelViewMatrix = new float[16];
@@ -101,6 +105,52 @@ public class PlaneRenderer {
   private final float[] normalVector = new float[3];
 
   private final Map<Plane, Integer> planeIndexMap = new HashMap<>();
+  // Each plane keeps its own GPU mesh, re-uploaded only when its polygon changes.
+  private final Map<Plane, PlaneMesh> planeMeshes = new HashMap<>();
+  // The keys of planeMeshes and planeGeometries, so that eviction can scan them without iterators.
+  private Plane[] cachedPlanes = new Plane[16];
+  private int numberOfCachedPlanes;
+  // Whether the polygon of every drawn plane must be read to detect changes, because the caller did
+  // not say which planes were updated.
+  private boolean checkAllPolygons = true;
+  private final PlaneSorter planeSorter = new PlaneSorter();
+  // Planes loaded from a PlaneMap, shown until live planes are detected.
+  private final List<SavedPlaneMesh> savedPlaneMeshes = new ArrayList<>();
+  // World-space bounding box of the saved planes, which the overview is fitted to.
+  private float savedPlanesMinX = Float.POSITIVE_INFINITY;
+  private float savedPlanesMaxX = Float.NEGATIVE_INFINITY;
+  private float savedPlanesMinY = Float.POSITIVE_INFINITY;
+  private float savedPlanesMaxY = Float.NEGATIVE_INFINITY;
+  private float savedPlanesMinZ = Float.POSITIVE_INFINITY;
+  private float savedPlanesMaxZ = Float.NEGATIVE_INFINITY;
+  private final float[] overviewProjectionMatrix = new float[16];
+  private final float[] overviewRectMatrix = new float[16];
+
+  // Batched mode: all planes are pre-transformed into one world-space stream and drawn at once.
+  private boolean batchingEnabled;
+  private final Map<Plane, PlaneGeometry> planeGeometries = new HashMap<>();
+  private VertexBuffer batchedPositionBuffer;
+  private VertexBuffer batchedUvMatrixBuffer;
+  private VertexBuffer batchedNormalBuffer;
+  private IndexBuffer batchedIndexBuffer;
+  private Mesh batchedMesh;
+  private FloatBuffer batchedPositions = createFloatBuffer(INITIAL_BUFFER_BOUNDARY_VERTS * 8);
+  private FloatBuffer batchedUvMatrices = createFloatBuffer(INITIAL_BUFFER_BOUNDARY_VERTS * 8);
+  private FloatBuffer batchedNormals = createFloatBuffer(INITIAL_BUFFER_BOUNDARY_VERTS * 6);
+  private IntBuffer batchedIndices = createIntBuffer(INITIAL_BUFFER_BOUNDARY_VERTS * 6);
+  // Each plane owns a fixed range of the vertex streams, so that a moved plane only re-uploads its
+  // own range and a new draw order only rewrites the index buffer. Ranges are handed out from
+  // batchedVertexEnd until batchedVertexCapacity is reached, then all live planes are compacted.
+  private boolean batchLayoutValid;
+  private int batchedVertexCapacity;
+  private int batchedVertexEnd;
+  // Planes in the order they were written to the index buffer, to detect when the order changes.
+  private Plane[] batchedPlaneOrder = new Plane[16];
+  private int numberOfBatchedPlanes;
+  private int numberOfBatchedIndices;
+  private final float[] viewProjectionMatrix = new float[16];
+  private final float[] worldPoint = new float[4];
+  private final float[] localPoint = new float[4];
 
   /**
    * Allocates and initializes OpenGL resources needed by the plane renderer. Must be called during
@@ -108,6 +158,7 @@ public class PlaneRenderer {
    * SampleRender.Renderer#onSurfaceCreated}.
    */
   public PlaneRenderer(SampleRender render) throws IOException {
+    this.render = render;
     Texture texture =
         Texture.createFromAsset(
             render, TEXTURE_NAME, Texture.WrapMode.REPEAT, Texture.ColorFormat.LINEAR);
@@ -121,17 +172,46 @@ public class PlaneRenderer {
                 BlendFactor.ZERO, // ALPHA (src)
                 BlendFactor.ONE_MINUS_SRC_ALPHA) // ALPHA (dest)
             .setDepthWrite(false);
+    batchedShader =
+        Shader.createFromAssets(
+                render, BATCHED_VERTEX_SHADER_NAME, FRAGMENT_SHADER_NAME, /*defines=*/ null)
+            .setTexture("u_Texture", texture)
+            .setVec4("u_GridControl", GRID_CONTROL)
+            .setBlend(
+                BlendFactor.DST_ALPHA, // RGB (src)
+                BlendFactor.ONE, // RGB (dest)
+                BlendFactor.ZERO, // ALPHA (src)
+                BlendFactor.ONE_MINUS_SRC_ALPHA) // ALPHA (dest)
+            .setDepthWrite(false);
+  }
 
-    indexBufferObject = new IndexBuffer(render, /*entries=*/ null);
-    vertexBufferObject = new VertexBuffer(render, COORDS_PER_VERTEX, /*entries=*/ null);
-    VertexBuffer[] vertexBuffers = {vertexBufferObject};
-    mesh = new Mesh(render, Mesh.PrimitiveMode.TRIANGLE_STRIP, indexBufferObject, vertexBuffers);
+  /**
+   * Enables or disables batched mode, in which all planes are transformed to world space on the
+   * CPU and drawn with a single draw call. Only the vertices of planes which moved or changed
+   * shape are transformed and uploaded again, and a change of the back-to-front order only rewrites
+   * the index buffer, so this is cheaper than one draw per plane when there are many planes.
+   */
+  public void setBatchingEnabled(boolean batchingEnabled) {
+    this.batchingEnabled = batchingEnabled;
+    if (batchingEnabled && batchedMesh == null) {
+      batchedPositionBuffer =
+          new VertexBuffer(render, BATCHED_COORDS_PER_VERTEX, /*entries=*/ null);
+      batchedUvMatrixBuffer =
+          new VertexBuffer(render, BATCHED_UV_MATRIX_ENTRIES, /*entries=*/ null);
+      batchedNormalBuffer = new VertexBuffer(render, BATCHED_NORMAL_ENTRIES, /*entries=*/ null);
+      batchedIndexBuffer = new IndexBuffer(render, /*entries=*/ null);
+      VertexBuffer[] vertexBuffers = {
+        batchedPositionBuffer, batchedUvMatrixBuffer, batchedNormalBuffer
+      };
+      batchedMesh =
+          new Mesh(render, Mesh.PrimitiveMode.TRIANGLES, batchedIndexBuffer, vertexBuffers);
+    }
+    // Force a rebuild the next time, the cached geometry may be stale.
+    batchLayoutValid = false;
   }
 
-  /** Updates the plane model transform matrix and extents. */
-  private void updatePlaneParameters(
-      float[] planeMatrix, float extentX, float extentZ, FloatBuffer boundary) {
-    System.arraycopy(planeMatrix, 0, modelMatrix, 0, 16);
+  /** Fills {@link #vertexBuffer} and {@link #indexBuffer} with the geometry of a plane polygon. */
+  private void updatePlaneGeometry(float extentX, float extentZ, FloatBuffer boundary) {
     if (boundary == null) {
       vertexBuffer.limit(0);
       indexBuffer.limit(0);
@@ -217,6 +297,9 @@ public class PlaneRenderer {
   /**
    * Draws the collection of tracked planes, with closer planes hiding more distant ones.
    *
+   * <p>The polygon of every plane is read each frame to detect changes. Prefer {@link
+   * #drawPlanes(SampleRender, List, List, Pose, float[])} when the updated planes are known.
+   *
    * @param allPlanes The collection of planes to draw.
    * @param cameraPose The pose of the camera, as returned by {@link Camera#getPose()}
    * @param cameraProjection The projection matrix, as returned by {@link
@@ -224,59 +307,96 @@ public class PlaneRenderer {
    */
   public void drawPlanes(
       SampleRender render, Collection<Plane> allPlanes, Pose cameraPose, float[] cameraProjection) {
+    checkAllPolygons = true;
     // Planes must be sorted by distance from camera so that we draw closer planes first, and
     // they occlude the farther planes.
-    List<SortablePlane> sortedPlanes = new ArrayList<>();
-
+    planeSorter.clear();
     for (Plane plane : allPlanes) {
-      if (plane.getTrackingState() != TrackingState.TRACKING || plane.getSubsumedBy() != null) {
-        continue;
-      }
+      addPlaneToSort(plane, cameraPose);
+    }
+    drawSortedPlanes(render, cameraPose, cameraProjection);
+  }
 
-      float distance = calculateDistanceToPlane(plane.getCenterPose(), cameraPose);
-      if (distance < 0) { // Plane is back-facing.
-        continue;
+  /**
+   * Draws the list of tracked planes, with closer planes hiding more distant ones. Once the caches
+   * have grown to fit the planes, this allocates nothing besides the center poses returned by
+   * {@link Plane#getCenterPose()}.
+   *
+   * @param allPlanes The list of planes to draw, iterated by index.
+   * @param updatedPlanes The planes whose polygon may have changed since the last call, as
+   *     reported by {@link com.google.ar.core.Frame#getUpdatedTrackables}. Only the polygons of
+   *     these planes and of planes drawn for the first time are read.
+   * @param cameraPose The pose of the camera, as returned by {@link Camera#getPose()}
+   * @param cameraProjection The projection matrix, as returned by {@link
+   *     Camera#getProjectionMatrix(float[], int, float, float)}
+   */
+  public void drawPlanes(
+      SampleRender render,
+      List<Plane> allPlanes,
+      List<Plane> updatedPlanes,
+      Pose cameraPose,
+      float[] cameraProjection) {
+    checkAllPolygons = false;
+    for (int i = 0; i < updatedPlanes.size(); ++i) {
+      Plane plane = updatedPlanes.get(i);
+      PlaneMesh planeMesh = planeMeshes.get(plane);
+      if (planeMesh != null) {
+        planeMesh.polygonStale = true;
       }
-      sortedPlanes.add(new SortablePlane(distance, plane));
+      PlaneGeometry geometry = planeGeometries.get(plane);
+      if (geometry != null) {
+        geometry.polygonStale = true;
+      }
+    }
+    planeSorter.clear();
+    for (int i = 0; i < allPlanes.size(); ++i) {
+      addPlaneToSort(allPlanes.get(i), cameraPose);
     }
-    Collections.sort(
-        sortedPlanes,
-        new Comparator<SortablePlane>() {
-          @Override
-          public int compare(SortablePlane a, SortablePlane b) {
-            return Float.compare(b.distance, a.distance);
-          }
-        });
+    drawSortedPlanes(render, cameraPose, cameraProjection);
+  }
 
-    cameraPose.inverse().toMatrix(viewMatrix, 0);
+  /** Adds {@code plane} to {@link #planeSorter} if it is tracking and faces the camera. */
+  private void addPlaneToSort(Plane plane, Pose cameraPose) {
+    if (plane.getTrackingState() != TrackingState.TRACKING || plane.getSubsumedBy() != null) {
+      return;
+    }
 
-    for (SortablePlane sortedPlane : sortedPlanes) {
-      Plane plane = sortedPlane.plane;
-      float[] planeMatrix = new float[16];
-      plane.getCenterPose().toMatrix(planeMatrix, 0);
+    Pose centerPose = plane.getCenterPose();
+    float distance = calculateDistanceToPlane(centerPose, cameraPose, normalVector);
+    if (distance < 0) { // Plane is back-facing.
+      return;
+    }
+    planeSorter.add(plane, centerPose, distance);
+  }
 
-      // Get transformed Y axis of plane's coordinate system.
-      plane.getCenterPose().getTransformedAxis(1, 1.0f, normalVector, 0);
+  private void drawSortedPlanes(SampleRender render, Pose cameraPose, float[] cameraProjection) {
+    planeSorter.sortByDecreasingDistance();
 
-      updatePlaneParameters(
-          planeMatrix, plane.getExtentX(), plane.getExtentZ(), plane.getPolygon());
+    // Same as cameraPose.inverse().toMatrix(), without allocating the inverse pose.
+    cameraPose.toMatrix(cameraMatrix, 0);
+    Matrix.invertM(viewMatrix, 0, cameraMatrix, 0);
 
-      // Get plane index. Keep a map to assign same indices to same planes.
-      Integer planeIndex = planeIndexMap.get(plane);
-      if (planeIndex == null) {
-        planeIndex = planeIndexMap.size();
-        planeIndexMap.put(plane, planeIndex);
+    if (batchingEnabled) {
+      drawPlanesBatched(render, cameraProjection);
+      planeSorter.clear();
+      evictPlaneMeshes();
+      return;
+    }
+
+    for (int i = 0; i < planeSorter.size(); ++i) {
+      Plane plane = planeSorter.getPlane(i);
+      Pose centerPose = planeSorter.getCenterPose(i);
+      centerPose.toMatrix(modelMatrix, 0);
+
+      // Get transformed Y axis of plane's coordinate system.
+      centerPose.getTransformedAxis(1, 1.0f, normalVector, 0);
+
+      PlaneMesh planeMesh = getPlaneMesh(plane);
+      if (planeMesh.isEmpty()) {
+        continue;
       }
 
-      // Each plane will have its own angle offset from others, to make them easier to
-      // distinguish. Compute a 2x2 rotation matrix from the angle.
-      float angleRadians = planeIndex * 0.144f;
-      float uScale = DOTS_PER_METER;
-      float vScale = DOTS_PER_METER * EQUILATERAL_TRIANGLE_SCALE;
-      planeAngleUvMatrix[0] = +(float) Math.cos(angleRadians) * uScale;
-      planeAngleUvMatrix[1] = -(float) Math.sin(angleRadians) * vScale;
-      planeAngleUvMatrix[2] = +(float) Math.sin(angleRadians) * uScale;
-      planeAngleUvMatrix[3] = +(float) Math.cos(angleRadians) * vScale;
+      updatePlaneAngleUvMatrix(plane);
 
       // Build the ModelView and ModelViewProjection matrices
       // for calculating cube position and light.
@@ -289,28 +409,620 @@ public class PlaneRenderer {
       shader.setMat2("u_PlaneUvMatrix", planeAngleUvMatrix);
       shader.setVec3("u_Normal", normalVector);
 
-      // Set the position of the plane
-      vertexBufferObject.set(vertexBuffer);
-      indexBufferObject.set(indexBuffer);
+      render.draw(planeMesh.mesh, shader);
+    }
+
+    planeSorter.clear();
+    evictPlaneMeshes();
+  }
 
-      render.draw(mesh, shader);
+  /** Computes {@link #planeAngleUvMatrix} for {@code plane}. */
+  private void updatePlaneAngleUvMatrix(Plane plane) {
+    // Get plane index. Keep a map to assign same indices to same planes.
+    Integer planeIndex = planeIndexMap.get(plane);
+    if (planeIndex == null) {
+      planeIndex = planeIndexMap.size();
+      planeIndexMap.put(plane, planeIndex);
     }
+    updatePlaneAngleUvMatrix(planeIndex);
   }
 
-  private static class SortablePlane {
-    final float distance;
-    final Plane plane;
+  private void updatePlaneAngleUvMatrix(int planeIndex) {
+    // Each plane will have its own angle offset from others, to make them easier to
+    // distinguish. Compute a 2x2 rotation matrix from the angle.
+    float angleRadians = planeIndex * 0.144f;
+    float uScale = DOTS_PER_METER;
+    float vScale = DOTS_PER_METER * EQUILATERAL_TRIANGLE_SCALE;
+    planeAngleUvMatrix[0] = +(float) Math.cos(angleRadians) * uScale;
+    planeAngleUvMatrix[1] = -(float) Math.sin(angleRadians) * vScale;
+    planeAngleUvMatrix[2] = +(float) Math.sin(angleRadians) * uScale;
+    planeAngleUvMatrix[3] = +(float) Math.cos(angleRadians) * vScale;
+  }
 
-    SortablePlane(float distance, Plane plane) {
-      this.distance = distance;
-      this.plane = plane;
+  /**
+   * Uploads the mesh of a plane loaded with {@link PlaneMap}, to be drawn by {@link
+   * #drawSavedPlaneOverview}. Each call uploads one small mesh, so callers can spread a large map
+   * over several frames.
+   */
+  public void addSavedPlane(PlaneMap.SavedPlane savedPlane) {
+    PlaneMesh planeMesh = new PlaneMesh(render);
+    updatePlaneGeometry(
+        savedPlane.getExtentX(),
+        savedPlane.getExtentZ(),
+        FloatBuffer.wrap(savedPlane.getPolygon()));
+    planeMesh.vertexBufferObject.set(vertexBuffer);
+    planeMesh.indexBufferObject.set(indexBuffer);
+    planeMesh.numberOfIndices = indexBuffer.limit();
+    if (planeMesh.isEmpty()) {
+      planeMesh.close();
+      return;
+    }
+    SavedPlaneMesh savedPlaneMesh = new SavedPlaneMesh(planeMesh);
+    savedPlane.getCenterPose().toMatrix(savedPlaneMesh.modelMatrix, 0);
+    savedPlane.getCenterPose().getTransformedAxis(1, 1.0f, savedPlaneMesh.normal, 0);
+    savedPlaneMeshes.add(savedPlaneMesh);
+
+    float[] polygon = savedPlane.getPolygon();
+    for (int i = 0; i + 1 < polygon.length; i += 2) {
+      localPoint[0] = polygon[i];
+      localPoint[1] = 0.0f;
+      localPoint[2] = polygon[i + 1];
+      localPoint[3] = 1.0f;
+      Matrix.multiplyMV(worldPoint, 0, savedPlaneMesh.modelMatrix, 0, localPoint, 0);
+      savedPlanesMinX = Math.min(savedPlanesMinX, worldPoint[0]);
+      savedPlanesMaxX = Math.max(savedPlanesMaxX, worldPoint[0]);
+      savedPlanesMinY = Math.min(savedPlanesMinY, worldPoint[1]);
+      savedPlanesMaxY = Math.max(savedPlanesMaxY, worldPoint[1]);
+      savedPlanesMinZ = Math.min(savedPlanesMinZ, worldPoint[2]);
+      savedPlanesMaxZ = Math.max(savedPlanesMaxZ, worldPoint[2]);
+    }
+  }
+
+  /** Returns the number of planes added with {@link #addSavedPlane}. */
+  public int getNumberOfSavedPlanes() {
+    return savedPlaneMeshes.size();
+  }
+
+  /** Frees the meshes of all planes added with {@link #addSavedPlane}. */
+  public void clearSavedPlanes() {
+    for (SavedPlaneMesh savedPlaneMesh : savedPlaneMeshes) {
+      savedPlaneMesh.mesh.close();
+    }
+    savedPlaneMeshes.clear();
+    savedPlanesMinX = Float.POSITIVE_INFINITY;
+    savedPlanesMaxX = Float.NEGATIVE_INFINITY;
+    savedPlanesMinY = Float.POSITIVE_INFINITY;
+    savedPlanesMaxY = Float.NEGATIVE_INFINITY;
+    savedPlanesMinZ = Float.POSITIVE_INFINITY;
+    savedPlanesMaxZ = Float.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * Draws the planes added with {@link #addSavedPlane} seen from above, fitted into {@code
+   * overviewRect} ({x, y, size, size} in window coordinates of the default framebuffer, as for
+   * {@code glScissor}) as a map of known surfaces. The planes are not drawn over the camera image,
+   * because their poses are in the world frame of the session that saved them, and every session
+   * places its origin at the device's starting pose. The map is oriented so that the saving
+   * session's -Z axis points up. Unlike {@link #drawPlanes} the planes are not sorted, which only
+   * affects how overlapping planes blend.
+   *
+   * @param surfaceWidth The width of the default framebuffer in pixels
+   * @param surfaceHeight The height of the default framebuffer in pixels
+   */
+  public void drawSavedPlaneOverview(
+      SampleRender render, int[] overviewRect, int surfaceWidth, int surfaceHeight) {
+    if (savedPlaneMeshes.isEmpty()) {
+      return;
+    }
+    // Look straight down from above the highest plane, with -Z pointing up on the screen.
+    float centerX = (savedPlanesMinX + savedPlanesMaxX) * 0.5f;
+    float centerZ = (savedPlanesMinZ + savedPlanesMaxZ) * 0.5f;
+    float eyeY = savedPlanesMaxY + 1.0f;
+    Matrix.setLookAtM(
+        viewMatrix, 0, centerX, eyeY, centerZ, centerX, eyeY - 1.0f, centerZ, 0.0f, 0.0f, -1.0f);
+    float halfSize =
+        Math.max(savedPlanesMaxX - savedPlanesMinX, savedPlanesMaxZ - savedPlanesMinZ) * 0.55f
+            + 0.1f;
+    Matrix.orthoM(
+        overviewProjectionMatrix,
+        0,
+        -halfSize,
+        halfSize,
+        -halfSize,
+        halfSize,
+        /*near=*/ 0.5f,
+        /*far=*/ eyeY - savedPlanesMinY + 0.5f);
+    // Map normalized device coordinates into the overview rectangle.
+    Matrix.setIdentityM(overviewRectMatrix, 0);
+    overviewRectMatrix[0] = (float) overviewRect[2] / surfaceWidth;
+    overviewRectMatrix[5] = (float) overviewRect[3] / surfaceHeight;
+    overviewRectMatrix[12] = (2.0f * overviewRect[0] + overviewRect[2]) / surfaceWidth - 1.0f;
+    overviewRectMatrix[13] = (2.0f * overviewRect[1] + overviewRect[3]) / surfaceHeight - 1.0f;
+    Matrix.multiplyMM(
+        viewProjectionMatrix, 0, overviewRectMatrix, 0, overviewProjectionMatrix, 0);
+
+    for (int i = 0; i < savedPlaneMeshes.size(); ++i) {
+      SavedPlaneMesh savedPlaneMesh = savedPlaneMeshes.get(i);
+      updatePlaneAngleUvMatrix(i);
+      Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, savedPlaneMesh.modelMatrix, 0);
+      Matrix.multiplyMM(
+          modelViewProjectionMatrix, 0, viewProjectionMatrix, 0, modelViewMatrix, 0);
+      shader.setMat4("u_Model", savedPlaneMesh.modelMatrix);
+      shader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix);
+      shader.setMat2("u_PlaneUvMatrix", planeAngleUvMatrix);
+      shader.setVec3("u_Normal", savedPlaneMesh.normal);
+      render.draw(savedPlaneMesh.mesh.mesh, shader, /*framebuffer=*/ null, overviewRect);
     }
   }
 
-  // Calculate the normal distance to plane from cameraPose, the given planePose should have y axis
-  // parallel to plane's normal, for example plane's center pose or hit test pose.
+  /**
+   * Draws the planes in {@link #planeSorter} with one draw call. Planes which moved or changed
+   * shape have their vertex ranges rewritten; the index buffer is rewritten if the sorted order or
+   * any plane's triangles changed.
+   */
+  private void drawPlanesBatched(SampleRender render, float[] cameraProjection) {
+    boolean orderChanged = numberOfBatchedPlanes != planeSorter.size();
+    boolean indicesChanged = false;
+    int numberOfNewVertices = 0;
+    for (int i = 0; i < planeSorter.size(); ++i) {
+      Plane plane = planeSorter.getPlane(i);
+      PlaneGeometry geometry = getPlaneGeometry(plane);
+      planeSorter.getCenterPose(i).toMatrix(modelMatrix, 0);
+      if (!Arrays.equals(modelMatrix, geometry.modelMatrix)) {
+        System.arraycopy(modelMatrix, 0, geometry.modelMatrix, 0, 16);
+        geometry.verticesChanged = true;
+      }
+      if (geometry.getNumberOfVertices() > geometry.vertexCapacity) {
+        // A new plane, or one which outgrew its range, needs a new range.
+        numberOfNewVertices += getVertexRangeCapacity(geometry.getNumberOfVertices());
+      }
+      indicesChanged |= geometry.indicesChanged;
+      // Blending makes the result depend on the order, so a reordering needs new indices too.
+      orderChanged |= i >= batchedPlaneOrder.length || batchedPlaneOrder[i] != plane;
+    }
+
+    if (!batchLayoutValid || batchedVertexEnd + numberOfNewVertices > batchedVertexCapacity) {
+      layoutBatch();
+      indicesChanged = true;
+    } else {
+      for (int i = 0; i < planeSorter.size(); ++i) {
+        PlaneGeometry geometry = planeGeometries.get(planeSorter.getPlane(i));
+        if (geometry.getNumberOfVertices() > geometry.vertexCapacity) {
+          // The old range, if any, stays unused until the next compaction.
+          geometry.baseVertex = batchedVertexEnd;
+          geometry.vertexCapacity = getVertexRangeCapacity(geometry.getNumberOfVertices());
+          batchedVertexEnd += geometry.vertexCapacity;
+          geometry.verticesChanged = true;
+          indicesChanged = true;
+        }
+        if (geometry.verticesChanged) {
+          writeBatchedVertices(i, geometry);
+          int numberOfVertices = geometry.getNumberOfVertices();
+          batchedPositionBuffer.setRange(batchedPositions, geometry.baseVertex, numberOfVertices);
+          batchedUvMatrixBuffer.setRange(batchedUvMatrices, geometry.baseVertex, numberOfVertices);
+          batchedNormalBuffer.setRange(batchedNormals, geometry.baseVertex, numberOfVertices);
+        }
+      }
+    }
+    if (orderChanged || indicesChanged) {
+      rebuildBatchedIndices();
+    }
+    if (numberOfBatchedIndices == 0) {
+      return;
+    }
+
+    Matrix.multiplyMM(viewProjectionMatrix, 0, cameraProjection, 0, viewMatrix, 0);
+    batchedShader.setMat4("u_ViewProjection", viewProjectionMatrix);
+    render.draw(batchedMesh, batchedShader);
+  }
+
+  // Leaves room for the polygon to grow, since planes usually expand while they are tracked.
+  private static int getVertexRangeCapacity(int numberOfVertices) {
+    return numberOfVertices + numberOfVertices / 2;
+  }
+
+  /**
+   * Assigns compact vertex ranges to the sorted planes, writes all of their vertices and uploads
+   * the whole vertex streams, with spare room for planes added later. Planes which are not
+   * currently drawn lose their ranges.
+   */
+  private void layoutBatch() {
+    for (int i = 0; i < numberOfCachedPlanes; ++i) {
+      PlaneGeometry geometry = planeGeometries.get(cachedPlanes[i]);
+      if (geometry != null) {
+        geometry.baseVertex = 0;
+        geometry.vertexCapacity = 0;
+      }
+    }
+    int numberOfVertices = 0;
+    for (int i = 0; i < planeSorter.size(); ++i) {
+      PlaneGeometry geometry = planeGeometries.get(planeSorter.getPlane(i));
+      geometry.baseVertex = numberOfVertices;
+      geometry.vertexCapacity = getVertexRangeCapacity(geometry.getNumberOfVertices());
+      numberOfVertices += geometry.vertexCapacity;
+    }
+    batchedVertexEnd = numberOfVertices;
+    batchedVertexCapacity =
+        Math.max(numberOfVertices * 2, INITIAL_BUFFER_BOUNDARY_VERTS * VERTS_PER_BOUNDARY_VERT);
+    batchedPositions =
+        ensureCapacity(batchedPositions, batchedVertexCapacity * BATCHED_COORDS_PER_VERTEX);
+    batchedUvMatrices =
+        ensureCapacity(batchedUvMatrices, batchedVertexCapacity * BATCHED_UV_MATRIX_ENTRIES);
+    batchedNormals =
+        ensureCapacity(batchedNormals, batchedVertexCapacity * BATCHED_NORMAL_ENTRIES);
+    for (int i = 0; i < planeSorter.size(); ++i) {
+      writeBatchedVertices(i, planeGeometries.get(planeSorter.getPlane(i)));
+    }
+    batchedPositionBuffer.set(batchedPositions);
+    batchedUvMatrixBuffer.set(batchedUvMatrices);
+    batchedNormalBuffer.set(batchedNormals);
+    batchLayoutValid = true;
+  }
+
+  /**
+   * Transforms the vertices of the {@code i}th sorted plane to world space and writes them to its
+   * range of the CPU-side vertex streams.
+   */
+  private void writeBatchedVertices(int i, PlaneGeometry geometry) {
+    updatePlaneAngleUvMatrix(planeSorter.getPlane(i));
+    // Get transformed Y axis of plane's coordinate system.
+    planeSorter.getCenterPose(i).getTransformedAxis(1, 1.0f, normalVector, 0);
+
+    batchedPositions.position(geometry.baseVertex * BATCHED_COORDS_PER_VERTEX);
+    batchedUvMatrices.position(geometry.baseVertex * BATCHED_UV_MATRIX_ENTRIES);
+    batchedNormals.position(geometry.baseVertex * BATCHED_NORMAL_ENTRIES);
+    float[] vertices = geometry.vertices;
+    for (int v = 0; v < vertices.length; v += COORDS_PER_VERTEX) {
+      localPoint[0] = vertices[v];
+      localPoint[1] = 0.0f;
+      localPoint[2] = vertices[v + 1];
+      localPoint[3] = 1.0f;
+      Matrix.multiplyMV(worldPoint, 0, geometry.modelMatrix, 0, localPoint, 0);
+      batchedPositions.put(worldPoint, 0, 3);
+      batchedPositions.put(vertices[v + 2]);
+      batchedUvMatrices.put(planeAngleUvMatrix);
+      batchedNormals.put(normalVector);
+    }
+    geometry.verticesChanged = false;
+  }
+
+  /** Writes the triangles of the sorted planes, back to front, to the index buffer. */
+  private void rebuildBatchedIndices() {
+    int numberOfIndices = 0;
+    for (int i = 0; i < planeSorter.size(); ++i) {
+      numberOfIndices += planeGeometries.get(planeSorter.getPlane(i)).triangleIndices.length;
+    }
+    batchedIndices = ensureCapacity(batchedIndices, numberOfIndices);
+    if (batchedPlaneOrder.length < planeSorter.size()) {
+      batchedPlaneOrder = new Plane[Math.max(planeSorter.size(), batchedPlaneOrder.length * 2)];
+    }
+    for (int i = 0; i < planeSorter.size(); ++i) {
+      Plane plane = planeSorter.getPlane(i);
+      PlaneGeometry geometry = planeGeometries.get(plane);
+      for (int index : geometry.triangleIndices) {
+        batchedIndices.put(geometry.baseVertex + index);
+      }
+      geometry.indicesChanged = false;
+      batchedPlaneOrder[i] = plane;
+    }
+    Arrays.fill(batchedPlaneOrder, planeSorter.size(), batchedPlaneOrder.length, null);
+    numberOfBatchedPlanes = planeSorter.size();
+    numberOfBatchedIndices = numberOfIndices;
+    batchedIndexBuffer.set(batchedIndices);
+  }
+
+  /**
+   * Returns the cached local-space geometry for {@code plane}, rebuilding it if the polygon or
+   * extents have changed. The polygon is only read if the plane may have changed.
+   */
+  private PlaneGeometry getPlaneGeometry(Plane plane) {
+    PlaneGeometry geometry = planeGeometries.get(plane);
+    if (geometry != null && !geometry.polygonStale && !checkAllPolygons) {
+      return geometry;
+    }
+    FloatBuffer boundary = plane.getPolygon();
+    float extentX = plane.getExtentX();
+    float extentZ = plane.getExtentZ();
+    int polygonHash = boundary == null ? 0 : boundary.hashCode();
+    int polygonSize = boundary == null ? 0 : boundary.limit();
+
+    if (geometry == null) {
+      geometry = new PlaneGeometry();
+      addCachedPlane(plane);
+      planeGeometries.put(plane, geometry);
+    } else if (geometry.polygonHash == polygonHash
+        && geometry.polygonSize == polygonSize
+        && geometry.extentX == extentX
+        && geometry.extentZ == extentZ) {
+      geometry.polygonStale = false;
+      return geometry;
+    }
+
+    updatePlaneGeometry(extentX, extentZ, boundary);
+    geometry.vertices = new float[vertexBuffer.limit()];
+    vertexBuffer.rewind();
+    vertexBuffer.get(geometry.vertices);
+
+    // Unroll the triangle strip into a triangle list so that planes can share one draw call.
+    int numberOfStripIndices = indexBuffer.limit();
+    int[] triangleIndices = new int[Math.max(0, numberOfStripIndices - 2) * 3];
+    int numberOfTriangleIndices = 0;
+    for (int i = 0; i + 2 < numberOfStripIndices; ++i) {
+      int a = indexBuffer.get(i);
+      int b = indexBuffer.get(i + 1);
+      int c = indexBuffer.get(i + 2);
+      if (a == b || b == c || a == c) {
+        continue;
+      }
+      // Every other triangle in a strip has reversed winding.
+      triangleIndices[numberOfTriangleIndices++] = (i % 2 == 0) ? a : b;
+      triangleIndices[numberOfTriangleIndices++] = (i % 2 == 0) ? b : a;
+      triangleIndices[numberOfTriangleIndices++] = c;
+    }
+    geometry.triangleIndices = Arrays.copyOf(triangleIndices, numberOfTriangleIndices);
+    geometry.polygonHash = polygonHash;
+    geometry.polygonSize = polygonSize;
+    geometry.extentX = extentX;
+    geometry.extentZ = extentZ;
+    geometry.polygonStale = false;
+    geometry.verticesChanged = true;
+    geometry.indicesChanged = true;
+    return geometry;
+  }
+
+  private static FloatBuffer createFloatBuffer(int size) {
+    return ByteBuffer.allocateDirect(BYTES_PER_FLOAT * size)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+  }
+
+  private static IntBuffer createIntBuffer(int size) {
+    return ByteBuffer.allocateDirect(BYTES_PER_INT * size)
+        .order(ByteOrder.nativeOrder())
+        .asIntBuffer();
+  }
+
+  /** Returns {@code buffer} or a larger one, rewound and limited to {@code size}. */
+  private static FloatBuffer ensureCapacity(FloatBuffer buffer, int size) {
+    if (buffer.capacity() < size) {
+      buffer = createFloatBuffer(Math.max(size, buffer.capacity() * 2));
+    }
+    buffer.clear();
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /** Returns {@code buffer} or a larger one, rewound and limited to {@code size}. */
+  private static IntBuffer ensureCapacity(IntBuffer buffer, int size) {
+    if (buffer.capacity() < size) {
+      buffer = createIntBuffer(Math.max(size, buffer.capacity() * 2));
+    }
+    buffer.clear();
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /**
+   * Returns the cached mesh for {@code plane}, creating it or re-uploading its geometry if the
+   * polygon or extents have changed since the last upload. The polygon is only read if the plane
+   * may have changed.
+   */
+  private PlaneMesh getPlaneMesh(Plane plane) {
+    PlaneMesh planeMesh = planeMeshes.get(plane);
+    if (planeMesh != null && !planeMesh.polygonStale && !checkAllPolygons) {
+      return planeMesh;
+    }
+    FloatBuffer boundary = plane.getPolygon();
+    float extentX = plane.getExtentX();
+    float extentZ = plane.getExtentZ();
+    // FloatBuffer.hashCode() only depends on the remaining elements, i.e. the polygon vertices.
+    int polygonHash = boundary == null ? 0 : boundary.hashCode();
+    int polygonSize = boundary == null ? 0 : boundary.limit();
+
+    if (planeMesh == null) {
+      planeMesh = new PlaneMesh(render);
+      addCachedPlane(plane);
+      planeMeshes.put(plane, planeMesh);
+    } else if (planeMesh.polygonHash == polygonHash
+        && planeMesh.polygonSize == polygonSize
+        && planeMesh.extentX == extentX
+        && planeMesh.extentZ == extentZ) {
+      planeMesh.polygonStale = false;
+      return planeMesh;
+    }
+
+    updatePlaneGeometry(extentX, extentZ, boundary);
+    planeMesh.vertexBufferObject.set(vertexBuffer);
+    planeMesh.indexBufferObject.set(indexBuffer);
+    planeMesh.numberOfIndices = indexBuffer.limit();
+    planeMesh.polygonHash = polygonHash;
+    planeMesh.polygonSize = polygonSize;
+    planeMesh.extentX = extentX;
+    planeMesh.extentZ = extentZ;
+    planeMesh.polygonStale = false;
+    return planeMesh;
+  }
+
+  /**
+   * Records that {@code plane} is about to get its first entry in {@link #planeMeshes} or {@link
+   * #planeGeometries}.
+   */
+  private void addCachedPlane(Plane plane) {
+    if (planeMeshes.containsKey(plane) || planeGeometries.containsKey(plane)) {
+      return; // Already cached by the other mode.
+    }
+    if (numberOfCachedPlanes == cachedPlanes.length) {
+      cachedPlanes = Arrays.copyOf(cachedPlanes, numberOfCachedPlanes * 2);
+    }
+    cachedPlanes[numberOfCachedPlanes++] = plane;
+  }
+
+  /** Frees the meshes and geometry of planes that will never be drawn again. */
+  private void evictPlaneMeshes() {
+    int i = 0;
+    while (i < numberOfCachedPlanes) {
+      Plane plane = cachedPlanes[i];
+      if (plane.getTrackingState() != TrackingState.STOPPED && plane.getSubsumedBy() == null) {
+        ++i;
+        continue;
+      }
+      PlaneMesh planeMesh = planeMeshes.remove(plane);
+      if (planeMesh != null) {
+        planeMesh.close();
+      }
+      planeGeometries.remove(plane);
+      // Order does not matter, so fill the hole with the last plane.
+      cachedPlanes[i] = cachedPlanes[--numberOfCachedPlanes];
+      cachedPlanes[numberOfCachedPlanes] = null;
+    }
+  }
+
+  /** The mesh of a saved plane together with its fixed transform. */
+  private static class SavedPlaneMesh {
+    final PlaneMesh mesh;
+    final float[] modelMatrix = new float[16];
+    final float[] normal = new float[3];
+
+    SavedPlaneMesh(PlaneMesh mesh) {
+      this.mesh = mesh;
+    }
+  }
+
+  /** A plane's local-space geometry for batched mode, as triangles. */
+  private static class PlaneGeometry {
+    float[] vertices = new float[0];
+    int[] triangleIndices = new int[0];
+    final float[] modelMatrix = new float[16];
+    int polygonHash;
+    int polygonSize;
+    float extentX;
+    float extentZ;
+    // The plane's vertices in the batched streams are [baseVertex, baseVertex + vertexCapacity).
+    int baseVertex;
+    int vertexCapacity;
+    // Set when the vertices or model matrix changed since the plane's range was last written.
+    boolean verticesChanged;
+    // Set when the triangles changed since the index buffer was last written.
+    boolean indicesChanged;
+    // Set when the plane was reported as updated since its polygon was last read.
+    boolean polygonStale;
+
+    int getNumberOfVertices() {
+      return vertices.length / COORDS_PER_VERTEX;
+    }
+  }
+
+  /** A plane's GPU mesh together with the polygon it was built from. */
+  private static class PlaneMesh implements Closeable {
+    final VertexBuffer vertexBufferObject;
+    final IndexBuffer indexBufferObject;
+    final Mesh mesh;
+    int numberOfIndices;
+    int polygonHash;
+    int polygonSize;
+    float extentX;
+    float extentZ;
+    // Set when the plane was reported as updated since its polygon was last read.
+    boolean polygonStale;
+
+    PlaneMesh(SampleRender render) {
+      indexBufferObject = new IndexBuffer(render, /*entries=*/ null);
+      vertexBufferObject = new VertexBuffer(render, COORDS_PER_VERTEX, /*entries=*/ null);
+      VertexBuffer[] vertexBuffers = {vertexBufferObject};
+      mesh = new Mesh(render, Mesh.PrimitiveMode.TRIANGLE_STRIP, indexBufferObject, vertexBuffers);
+    }
+
+    boolean isEmpty() {
+      return numberOfIndices == 0;
+    }
+
+    @Override
+    public void close() {
+      mesh.close();
+      vertexBufferObject.close();
+      indexBufferObject.close();
+    }
+  }
+
+  /**
+   * Sorts planes by distance using parallel arrays that grow as needed and are reused across
+   * frames, so that sorting allocates nothing once the arrays are large enough.
+   */
+  static class PlaneSorter {
+    private Plane[] planes = new Plane[16];
+    private Pose[] centerPoses = new Pose[16];
+    private float[] distances = new float[16];
+    // Indices into the arrays above, in sorted order.
+    private int[] order = new int[16];
+    private int size;
+
+    void clear() {
+      // Drop the references so that planes and poses can be collected.
+      Arrays.fill(planes, 0, size, null);
+      Arrays.fill(centerPoses, 0, size, null);
+      size = 0;
+    }
+
+    void add(Plane plane, Pose centerPose, float distance) {
+      if (size == planes.length) {
+        int capacity = size * 2;
+        planes = Arrays.copyOf(planes, capacity);
+        centerPoses = Arrays.copyOf(centerPoses, capacity);
+        distances = Arrays.copyOf(distances, capacity);
+        order = Arrays.copyOf(order, capacity);
+      }
+      planes[size] = plane;
+      centerPoses[size] = centerPose;
+      distances[size] = distance;
+      order[size] = size;
+      ++size;
+    }
+
+    /** Insertion sort of {@code order}; the number of planes is small and it is stable. */
+    void sortByDecreasingDistance() {
+      for (int i = 1; i < size; ++i) {
+        int index = order[i];
+        float distance = distances[index];
+        int j = i - 1;
+        while (j >= 0 && distances[order[j]] < distance) {
+          order[j + 1] = order[j];
+          --j;
+        }
+        order[j + 1] = index;
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    Plane getPlane(int i) {
+      return planes[order[i]];
+    }
+
+    Pose getCenterPose(int i) {
+      return centerPoses[order[i]];
+    }
+  }
+
+  /**
+   * Calculates the normal distance to plane from cameraPose.
+   *
+   * @deprecated allocates on every call, which adds up when called per plane per frame; use {@link
+   *     #calculateDistanceToPlane(Pose, Pose, float[])} with a reused scratch array instead.
+   */
+  @Deprecated
   public static float calculateDistanceToPlane(Pose planePose, Pose cameraPose) {
-    float[] normal = new float[3];
+    return calculateDistanceToPlane(planePose, cameraPose, new float[3]);
+  }
+
+  /**
+   * Calculates the normal distance to plane from cameraPose. The given planePose should have its y
+   * axis parallel to the plane's normal, for example the plane's center pose or a hit test pose.
+   * {@code normal} (at least 3 elements) is used as scratch space, so callers can reuse one array
+   * across calls instead of allocating.
+   */
+  public static float calculateDistanceToPlane(Pose planePose, Pose cameraPose, float[] normal) {
     float cameraX = cameraPose.tx();
     float cameraY = cameraPose.ty();
     float cameraZ = cameraPose.tz();
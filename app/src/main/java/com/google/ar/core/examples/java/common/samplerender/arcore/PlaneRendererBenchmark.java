@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender.arcore;
+
+import com.google.ar.core.Pose;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Times the per-frame CPU work of {@link PlaneRenderer} which needs neither a GL context nor an
+ * ARCore session: computing the camera distance of every plane and sorting the planes back to
+ * front. Meant to be run in debug builds on the device, since the cost depends on its CPU and JIT.
+ */
+public final class PlaneRendererBenchmark {
+  private static final int WARMUP_FRAMES = 200;
+  private static final int NUMBER_OF_CAMERA_POSES = 16;
+
+  // Keeps the JIT from removing the timed loops as dead code.
+  private static volatile float sink;
+
+  private PlaneRendererBenchmark() {}
+
+  /**
+   * Simulates {@code numberOfFrames} frames with {@code numberOfPlanes} randomly placed planes and
+   * returns a one-line summary of the average time per frame of each step.
+   */
+  public static String run(int numberOfPlanes, int numberOfFrames) {
+    if (numberOfPlanes <= 0 || numberOfFrames <= 0) {
+      throw new IllegalArgumentException("Plane and frame counts must be positive");
+    }
+    Random random = new Random(/*seed=*/ 0);
+    Pose[] centerPoses = new Pose[numberOfPlanes];
+    for (int i = 0; i < numberOfPlanes; ++i) {
+      centerPoses[i] = createRandomPose(random, /*range=*/ 5.0f);
+    }
+    // The camera moves between frames, so that the sorted order changes as it does in practice.
+    Pose[] cameraPoses = new Pose[NUMBER_OF_CAMERA_POSES];
+    for (int i = 0; i < NUMBER_OF_CAMERA_POSES; ++i) {
+      cameraPoses[i] = createRandomPose(random, /*range=*/ 0.5f);
+    }
+    PlaneRenderer.PlaneSorter planeSorter = new PlaneRenderer.PlaneSorter();
+    float[] normal = new float[3];
+
+    // Let the JIT compile the loops before timing them.
+    sortFrames(planeSorter, centerPoses, cameraPoses, normal, WARMUP_FRAMES);
+    measureDistances(centerPoses, cameraPoses, normal, WARMUP_FRAMES);
+    measureAllocatingDistances(centerPoses, cameraPoses, WARMUP_FRAMES);
+
+    long sortNanos = sortFrames(planeSorter, centerPoses, cameraPoses, normal, numberOfFrames);
+    long distanceNanos = measureDistances(centerPoses, cameraPoses, normal, numberOfFrames);
+    long allocatingDistanceNanos =
+        measureAllocatingDistances(centerPoses, cameraPoses, numberOfFrames);
+    return String.format(
+        Locale.US,
+        "%d planes, %d frames: distance+sort %.1f us/frame, distance %.1f us/frame,"
+            + " allocating distance %.1f us/frame",
+        numberOfPlanes,
+        numberOfFrames,
+        sortNanos / 1000.0 / numberOfFrames,
+        distanceNanos / 1000.0 / numberOfFrames,
+        allocatingDistanceNanos / 1000.0 / numberOfFrames);
+  }
+
+  /** Does the same work as {@link PlaneRenderer#drawPlanes} before drawing, minus ARCore calls. */
+  private static long sortFrames(
+      PlaneRenderer.PlaneSorter planeSorter,
+      Pose[] centerPoses,
+      Pose[] cameraPoses,
+      float[] normal,
+      int numberOfFrames) {
+    long startNanos = System.nanoTime();
+    for (int frame = 0; frame < numberOfFrames; ++frame) {
+      Pose cameraPose = cameraPoses[frame % cameraPoses.length];
+      planeSorter.clear();
+      for (Pose centerPose : centerPoses) {
+        float distance = PlaneRenderer.calculateDistanceToPlane(centerPose, cameraPose, normal);
+        planeSorter.add(/*plane=*/ null, centerPose, distance);
+      }
+      planeSorter.sortByDecreasingDistance();
+    }
+    long nanos = System.nanoTime() - startNanos;
+    planeSorter.clear();
+    return nanos;
+  }
+
+  private static long measureDistances(
+      Pose[] centerPoses, Pose[] cameraPoses, float[] normal, int numberOfFrames) {
+    float sum = 0;
+    long startNanos = System.nanoTime();
+    for (int frame = 0; frame < numberOfFrames; ++frame) {
+      Pose cameraPose = cameraPoses[frame % cameraPoses.length];
+      for (Pose centerPose : centerPoses) {
+        sum += PlaneRenderer.calculateDistanceToPlane(centerPose, cameraPose, normal);
+      }
+    }
+    long nanos = System.nanoTime() - startNanos;
+    consume(sum);
+    return nanos;
+  }
+
+  @SuppressWarnings("deprecation") // Measures the deprecated overload on purpose.
+  private static long measureAllocatingDistances(
+      Pose[] centerPoses, Pose[] cameraPoses, int numberOfFrames) {
+    float sum = 0;
+    long startNanos = System.nanoTime();
+    for (int frame = 0; frame < numberOfFrames; ++frame) {
+      Pose cameraPose = cameraPoses[frame % cameraPoses.length];
+      for (Pose centerPose : centerPoses) {
+        sum += PlaneRenderer.calculateDistanceToPlane(centerPose, cameraPose);
+      }
+    }
+    long nanos = System.nanoTime() - startNanos;
+    consume(sum);
+    return nanos;
+  }
+
+  private static Pose createRandomPose(Random random, float range) {
+    float[] translation = {
+      (random.nextFloat() * 2 - 1) * range,
+      (random.nextFloat() * 2 - 1) * range,
+      (random.nextFloat() * 2 - 1) * range
+    };
+    // Rotation by a random angle around a random axis.
+    float angle = random.nextFloat() * (float) Math.PI;
+    float x = random.nextFloat() * 2 - 1;
+    float y = random.nextFloat() * 2 - 1;
+    float z = random.nextFloat() * 2 - 1;
+    float length = Math.max((float) Math.sqrt(x * x + y * y + z * z), 1e-6f);
+    float scale = (float) Math.sin(angle / 2) / length;
+    float[] rotation = {x * scale, y * scale, z * scale, (float) Math.cos(angle / 2)};
+    return new Pose(translation, rotation);
+  }
+
+  private static void consume(float value) {
+    sink = value;
+  }
+}
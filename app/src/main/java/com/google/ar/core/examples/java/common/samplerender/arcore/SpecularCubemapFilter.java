@@ -18,6 +18,7 @@ package com.google.ar.core.examples.java.common.samplerender.arcore;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
+import android.media.Image;
 import android.opengl.GLES30;
 import android.util.Log;
 import com.google.ar.core.ArImage;
@@ -27,8 +28,16 @@ import com.google.ar.core.examples.java.common.samplerender.Mesh;
 import com.google.ar.core.examples.java.common.samplerender.SampleRender;
 import com.google.ar.core.examples.java.common.samplerender.Shader;
 import com.google.ar.core.examples.java.common.samplerender.Texture;
+import com.google.ar.core.examples.java.common.samplerender.UniformBuffer;
 import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -145,12 +154,38 @@ public class SpecularCubemapFilter implements Closeable {
     public float level;
   }
 
+  // The importance sample caches are uploaded as a single std140 uniform block, see the
+  // ImportanceSampleCaches block in cubemap_filter.frag. An entry is a vec3 followed by two floats,
+  // and its size is rounded up to the 16 byte alignment of a struct. A cache starts with its int
+  // entry count, padded so that the entries array is 16 byte aligned.
+  private static final int STD140_ENTRY_CONTRIBUTION_OFFSET = 12;
+  private static final int STD140_ENTRY_LEVEL_OFFSET = 16;
+  private static final int STD140_ENTRY_STRIDE = 32;
+  private static final int STD140_CACHE_ENTRIES_OFFSET = 16;
+
+  private static final String IMPORTANCE_SAMPLE_CACHE_BLOCK_NAME = "ImportanceSampleCaches";
+  // Bump this whenever the sample generation or the std140 layout above changes.
+  private static final int IMPORTANCE_SAMPLE_CACHE_VERSION = 1;
+
+  // Serialized importance sample caches, keyed by resolution and number of importance samples.
+  // Shared between instances so that recreating the filter never regenerates them.
+  private static final HashMap<String, byte[]> importanceSampleCacheData = new HashMap<>();
+
+  // Input change detection. The signature of a cubemap is the mean RGB radiance of each face,
+  // estimated from every SIGNATURE_TEXEL_STRIDE-th texel of each row.
+  private static final int SIGNATURE_TEXEL_STRIDE = 4;
+  private static final int SIGNATURE_COMPONENTS_PER_FACE = 3;
+  private static final int RGBA_FP16_TEXEL_SIZE = 8;
+  private static final float DEFAULT_CHANGE_THRESHOLD = 0.02f;
+  private static final int DEFAULT_MAX_STALE_UPDATES = 30;
+
   private final int resolution;
   private final int numberOfImportanceSamples;
   private final int numberOfMipmapLevels;
 
   private final Texture radianceCubemap;
   private final Texture ldCubemap;
+  private final UniformBuffer importanceSampleCacheBuffer;
   // Indexed by attachment chunk.
   private final Shader[] shaders;
   private final Mesh mesh;
@@ -159,6 +194,20 @@ public class SpecularCubemapFilter implements Closeable {
   // [mipmapLevel][attachmentChunk].
   private final int[][] framebuffers;
 
+  private final float[] inputSignature =
+      new float[NUMBER_OF_CUBE_FACES * SIGNATURE_COMPONENTS_PER_FACE];
+  // Signature of the input most recently uploaded to the radiance cubemap.
+  private final float[] uploadedSignature =
+      new float[NUMBER_OF_CUBE_FACES * SIGNATURE_COMPONENTS_PER_FACE];
+  private boolean hasUploadedInput;
+  private int staleUpdates;
+  // The next mipmap level of the LD cubemap to filter, or numberOfMipmapLevels if none are pending.
+  private int nextLevelToFilter;
+
+  private float changeThreshold = DEFAULT_CHANGE_THRESHOLD;
+  private int maxStaleUpdates = DEFAULT_MAX_STALE_UPDATES;
+  private int mipmapLevelsPerUpdate;
+
   /**
    * Constructs a {@link SpecularCubemapFilter}.
    *
@@ -173,9 +222,27 @@ public class SpecularCubemapFilter implements Closeable {
    */
   public SpecularCubemapFilter(SampleRender render, int resolution, int numberOfImportanceSamples)
       throws IOException {
+    this(render, resolution, numberOfImportanceSamples, /*cacheDirectory=*/ null);
+  }
+
+  /**
+   * Constructs a {@link SpecularCubemapFilter} whose importance sample caches are persisted in
+   * {@code cacheDirectory}, so that they are only generated once per combination of resolution and
+   * number of importance samples.
+   *
+   * <p>The {@code cacheDirectory} argument may be null, in which case the caches are only shared
+   * in memory.
+   *
+   * @see #SpecularCubemapFilter(SampleRender, int, int)
+   */
+  public SpecularCubemapFilter(
+      SampleRender render, int resolution, int numberOfImportanceSamples, File cacheDirectory)
+      throws IOException {
     this.resolution = resolution;
     this.numberOfImportanceSamples = numberOfImportanceSamples;
     this.numberOfMipmapLevels = log2(resolution) + 1;
+    this.mipmapLevelsPerUpdate = numberOfMipmapLevels;
+    this.nextLevelToFilter = numberOfMipmapLevels;
 
     try {
       radianceCubemap =
@@ -185,6 +252,7 @@ public class SpecularCubemapFilter implements Closeable {
 
       ChunkIterable chunks = new ChunkIterable(getMaxColorAttachments());
       initializeLdCubemap();
+      importanceSampleCacheBuffer = createImportanceSampleCacheBuffer(render, cacheDirectory);
       shaders = createShaders(render, chunks);
       framebuffers = createFramebuffers(chunks);
 
@@ -222,6 +290,9 @@ public class SpecularCubemapFilter implements Closeable {
         shader.close();
       }
     }
+    if (importanceSampleCacheBuffer != null) {
+      importanceSampleCacheBuffer.close();
+    }
   }
 
   /**
@@ -231,13 +302,15 @@ public class SpecularCubemapFilter implements Closeable {
    * com.google.ar.core.LightEstimate.acquireEnvironmentalHdrCubeMap()} to update the filtered
    * cubemap texture, accessible via {@link getFilteredCubemapTexture()}.
    *
+   * <p>Input which differs from the last uploaded cubemap by no more than the {@linkplain
+   * #setChangeThreshold change threshold} is not uploaded again, for at most {@linkplain
+   * #setMaxStaleUpdates the staleness budget} consecutive updates. Filtering of a new input is
+   * spread over several calls according to {@link #setMipmapLevelsPerUpdate}.
+   *
    * <p>The given {@link ArImage}s will be closed by this method, even if an exception occurs.
    */
   public void update(ArImage[] images) {
     try {
-      GLES30.glBindTexture(GLES30.GL_TEXTURE_CUBE_MAP, radianceCubemap.getTextureId());
-      GLError.maybeThrowGLException("Failed to bind radiance cubemap texture", "glBindTexture");
-
       if (images.length != NUMBER_OF_CUBE_FACES) {
         throw new IllegalArgumentException(
             "Number of images differs from the number of sides of a cube.");
@@ -261,42 +334,61 @@ public class SpecularCubemapFilter implements Closeable {
                   + resolution
                   + ").");
         }
-
-        GLES30.glTexImage2D(
-            GLES30.GL_TEXTURE_CUBE_MAP_POSITIVE_X + i,
-            /*level=*/ 0,
-            GLES30.GL_RGBA16F,
-            /*width=*/ resolution,
-            /*height=*/ resolution,
-            /*border=*/ 0,
-            GLES30.GL_RGBA,
-            GLES30.GL_HALF_FLOAT,
-            image.getPlanes()[0].getBuffer());
-        GLError.maybeThrowGLException("Failed to populate cubemap face", "glTexImage2D");
+        computeFaceSignature(image, i, inputSignature);
       }
 
-      GLES30.glGenerateMipmap(GLES30.GL_TEXTURE_CUBE_MAP);
-      GLError.maybeThrowGLException("Failed to generate cubemap mipmaps", "glGenerateMipmap");
-
-      // Do the filtering operation, filling the mipmaps of ldTexture with the roughness filtered
-      // cubemap.
-      for (int level = 0; level < numberOfMipmapLevels; ++level) {
-        int mipmapResolution = resolution >> level;
-        GLES30.glViewport(0, 0, mipmapResolution, mipmapResolution);
-        GLError.maybeThrowGLException("Failed to set viewport dimensions", "glViewport");
-        for (int chunkIndex = 0; chunkIndex < shaders.length; ++chunkIndex) {
-          GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, framebuffers[level][chunkIndex]);
-          GLError.maybeThrowGLException("Failed to bind cubemap framebuffer", "glBindFramebuffer");
-          shaders[chunkIndex].setInt("u_RoughnessLevel", level);
-          shaders[chunkIndex].lowLevelUse();
-          mesh.lowLevelDraw();
-        }
+      if (shouldUpload()) {
+        uploadRadianceCubemap(images);
       }
     } finally {
       for (ArImage image : images) {
         image.close();
       }
     }
+    filterPendingLevels();
+  }
+
+  /**
+   * Filters the mipmap levels which are still pending from the most recently uploaded cubemap, up
+   * to the number set by {@link #setMipmapLevelsPerUpdate}. Call this on frames where no new cubemap
+   * is available so that amortized filtering still completes.
+   */
+  public void filterPendingLevels() {
+    filterLevels(mipmapLevelsPerUpdate);
+  }
+
+  /**
+   * Sets the relative change in mean face radiance below which a new cubemap is considered equal to
+   * the last uploaded one. A threshold of 0 re-filters on any change.
+   */
+  public void setChangeThreshold(float changeThreshold) {
+    if (changeThreshold < 0f) {
+      throw new IllegalArgumentException("Change threshold must not be negative");
+    }
+    this.changeThreshold = changeThreshold;
+  }
+
+  /**
+   * Sets the maximum number of consecutive updates for which a cubemap that changed by less than
+   * the change threshold may be ignored before it is filtered anyway.
+   */
+  public void setMaxStaleUpdates(int maxStaleUpdates) {
+    if (maxStaleUpdates < 0) {
+      throw new IllegalArgumentException("Maximum number of stale updates must not be negative");
+    }
+    this.maxStaleUpdates = maxStaleUpdates;
+  }
+
+  /**
+   * Sets how many mipmap levels of the filtered cubemap are computed per update. By default all
+   * levels are filtered immediately; smaller values spread the cost of filtering over several
+   * frames. The first cubemap is always filtered completely.
+   */
+  public void setMipmapLevelsPerUpdate(int mipmapLevelsPerUpdate) {
+    if (mipmapLevelsPerUpdate <= 0) {
+      throw new IllegalArgumentException("Number of mipmap levels per update must be positive");
+    }
+    this.mipmapLevelsPerUpdate = mipmapLevelsPerUpdate;
   }
 
   /** Returns the number of mipmap levels in the filtered cubemap texture. */
@@ -312,6 +404,100 @@ public class SpecularCubemapFilter implements Closeable {
     return ldCubemap;
   }
 
+  private void filterLevels(int numberOfLevels) {
+    int endLevel = min(numberOfMipmapLevels, nextLevelToFilter + numberOfLevels);
+    // Do the filtering operation, filling the mipmaps of ldTexture with the roughness filtered
+    // cubemap.
+    for (int level = nextLevelToFilter; level < endLevel; ++level) {
+      int mipmapResolution = resolution >> level;
+      GLES30.glViewport(0, 0, mipmapResolution, mipmapResolution);
+      GLError.maybeThrowGLException("Failed to set viewport dimensions", "glViewport");
+      for (int chunkIndex = 0; chunkIndex < shaders.length; ++chunkIndex) {
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, framebuffers[level][chunkIndex]);
+        GLError.maybeThrowGLException("Failed to bind cubemap framebuffer", "glBindFramebuffer");
+        shaders[chunkIndex].setInt("u_RoughnessLevel", level);
+        shaders[chunkIndex].lowLevelUse();
+        mesh.lowLevelDraw();
+      }
+    }
+    nextLevelToFilter = max(nextLevelToFilter, endLevel);
+  }
+
+  private boolean shouldUpload() {
+    if (!hasUploadedInput) {
+      return true;
+    }
+    float difference = 0f;
+    float magnitude = 0f;
+    for (int i = 0; i < inputSignature.length; ++i) {
+      difference += Math.abs(inputSignature[i] - uploadedSignature[i]);
+      magnitude += Math.abs(uploadedSignature[i]);
+    }
+    if (difference == 0f) {
+      return false;
+    }
+    // Written so that NaN signatures count as a change.
+    if (!(difference <= changeThreshold * magnitude)) {
+      return true;
+    }
+    return ++staleUpdates > maxStaleUpdates;
+  }
+
+  private void uploadRadianceCubemap(ArImage[] images) {
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_CUBE_MAP, radianceCubemap.getTextureId());
+    GLError.maybeThrowGLException("Failed to bind radiance cubemap texture", "glBindTexture");
+
+    for (int i = 0; i < NUMBER_OF_CUBE_FACES; ++i) {
+      GLES30.glTexImage2D(
+          GLES30.GL_TEXTURE_CUBE_MAP_POSITIVE_X + i,
+          /*level=*/ 0,
+          GLES30.GL_RGBA16F,
+          /*width=*/ resolution,
+          /*height=*/ resolution,
+          /*border=*/ 0,
+          GLES30.GL_RGBA,
+          GLES30.GL_HALF_FLOAT,
+          images[i].getPlanes()[0].getBuffer());
+      GLError.maybeThrowGLException("Failed to populate cubemap face", "glTexImage2D");
+    }
+
+    GLES30.glGenerateMipmap(GLES30.GL_TEXTURE_CUBE_MAP);
+    GLError.maybeThrowGLException("Failed to generate cubemap mipmaps", "glGenerateMipmap");
+
+    System.arraycopy(inputSignature, 0, uploadedSignature, 0, inputSignature.length);
+    staleUpdates = 0;
+    nextLevelToFilter = 0;
+    if (!hasUploadedInput) {
+      // Without a previous result there is nothing to show in the meantime, so filter every level
+      // right away.
+      filterLevels(numberOfMipmapLevels);
+    }
+    hasUploadedInput = true;
+  }
+
+  private void computeFaceSignature(ArImage image, int face, float[] signature) {
+    Image.Plane plane = image.getPlanes()[0];
+    ByteBuffer buffer = plane.getBuffer().duplicate().order(ByteOrder.nativeOrder());
+    int rowStride = plane.getRowStride();
+    float r = 0f;
+    float g = 0f;
+    float b = 0f;
+    int count = 0;
+    for (int y = 0; y < resolution; ++y) {
+      for (int x = y % SIGNATURE_TEXEL_STRIDE; x < resolution; x += SIGNATURE_TEXEL_STRIDE) {
+        int offset = y * rowStride + x * RGBA_FP16_TEXEL_SIZE;
+        r += halfToFloat(buffer.getShort(offset));
+        g += halfToFloat(buffer.getShort(offset + 2));
+        b += halfToFloat(buffer.getShort(offset + 4));
+        ++count;
+      }
+    }
+    int base = face * SIGNATURE_COMPONENTS_PER_FACE;
+    signature[base] = r / count;
+    signature[base + 1] = g / count;
+    signature[base + 2] = b / count;
+  }
+
   private void initializeLdCubemap() {
     // Initialize mipmap levels of LD cubemap.
     GLES30.glBindTexture(GLES30.GL_TEXTURE_CUBE_MAP, ldCubemap.getTextureId());
@@ -334,9 +520,24 @@ public class SpecularCubemapFilter implements Closeable {
     }
   }
 
-  private Shader[] createShaders(SampleRender render, ChunkIterable chunks) throws IOException {
-    ImportanceSampleCacheEntry[][] importanceSampleCaches = generateImportanceSampleCaches();
+  private UniformBuffer createImportanceSampleCacheBuffer(
+      SampleRender render, File cacheDirectory) {
+    byte[] data = getImportanceSampleCacheData(cacheDirectory);
+    int maxUniformBlockSize = getMaxUniformBlockSize();
+    if (data.length > maxUniformBlockSize) {
+      throw new IllegalArgumentException(
+          "Importance sample caches ("
+              + data.length
+              + " bytes) exceed the maximum uniform block size ("
+              + maxUniformBlockSize
+              + " bytes).");
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(data.length).order(ByteOrder.nativeOrder());
+    buffer.put(data);
+    return new UniformBuffer(render, buffer);
+  }
 
+  private Shader[] createShaders(SampleRender render, ChunkIterable chunks) throws IOException {
     HashMap<String, String> commonDefines = new HashMap<>();
     commonDefines.put("NUMBER_OF_IMPORTANCE_SAMPLES", Integer.toString(numberOfImportanceSamples));
     commonDefines.put("NUMBER_OF_MIPMAP_LEVELS", Integer.toString(numberOfMipmapLevels));
@@ -350,31 +551,16 @@ public class SpecularCubemapFilter implements Closeable {
             Integer.toString(location));
       }
 
-      // Create the shader and populate its uniforms with the importance sample cache entries.
+      // Create the shader and attach the importance sample cache entries.
       shaders[chunk.chunkIndex] =
           Shader.createFromAssets(
                   render, "shaders/cubemap_filter.vert", "shaders/cubemap_filter.frag", defines)
               .setTexture("u_Cubemap", radianceCubemap)
+              .setUniformBuffer(IMPORTANCE_SAMPLE_CACHE_BLOCK_NAME, importanceSampleCacheBuffer)
               .setDepthTest(false)
               .setDepthWrite(false);
     }
 
-    for (Shader shader : shaders) {
-      for (int i = 0; i < importanceSampleCaches.length; ++i) {
-        ImportanceSampleCacheEntry[] cache = importanceSampleCaches[i];
-        String cacheName = "u_ImportanceSampleCaches[" + i + "]";
-        shader.setInt(cacheName + ".number_of_entries", cache.length);
-        for (int j = 0; j < cache.length; ++j) {
-          ImportanceSampleCacheEntry entry = cache[j];
-          String entryName = cacheName + ".entries[" + j + "]";
-          shader
-              .setVec3(entryName + ".direction", entry.direction)
-              .setFloat(entryName + ".contribution", entry.contribution)
-              .setFloat(entryName + ".level", entry.level);
-        }
-      }
-    }
-
     return shaders;
   }
 
@@ -410,6 +596,106 @@ public class SpecularCubemapFilter implements Closeable {
     return framebuffers;
   }
 
+  /**
+   * Returns the importance sample caches serialized in the std140 layout of the uniform block,
+   * generating them only if they are neither in memory nor in {@code cacheDirectory}.
+   */
+  private byte[] getImportanceSampleCacheData(File cacheDirectory) {
+    String key =
+        "importance_samples_v"
+            + IMPORTANCE_SAMPLE_CACHE_VERSION
+            + "_"
+            + resolution
+            + "_"
+            + numberOfImportanceSamples;
+    synchronized (importanceSampleCacheData) {
+      byte[] data = importanceSampleCacheData.get(key);
+      if (data != null) {
+        return data;
+      }
+      int expectedSize = (numberOfMipmapLevels - 1) * getStd140CacheStride();
+      File file = cacheDirectory == null ? null : new File(cacheDirectory, key + ".bin");
+      if (file != null) {
+        data = readImportanceSampleCacheFile(file, expectedSize);
+      }
+      if (data == null) {
+        data = serializeImportanceSampleCaches(generateImportanceSampleCaches());
+        if (file != null) {
+          writeImportanceSampleCacheFile(file, data);
+        }
+      }
+      importanceSampleCacheData.put(key, data);
+      return data;
+    }
+  }
+
+  private byte[] serializeImportanceSampleCaches(ImportanceSampleCacheEntry[][] caches) {
+    int cacheStride = getStd140CacheStride();
+    ByteBuffer buffer =
+        ByteBuffer.allocate(caches.length * cacheStride).order(ByteOrder.nativeOrder());
+    for (int i = 0; i < caches.length; ++i) {
+      int cacheOffset = i * cacheStride;
+      buffer.putInt(cacheOffset, caches[i].length);
+      for (int j = 0; j < caches[i].length; ++j) {
+        ImportanceSampleCacheEntry entry = caches[i][j];
+        int entryOffset = cacheOffset + STD140_CACHE_ENTRIES_OFFSET + j * STD140_ENTRY_STRIDE;
+        buffer.putFloat(entryOffset, entry.direction[0]);
+        buffer.putFloat(entryOffset + FLOAT_SIZE, entry.direction[1]);
+        buffer.putFloat(entryOffset + 2 * FLOAT_SIZE, entry.direction[2]);
+        buffer.putFloat(entryOffset + STD140_ENTRY_CONTRIBUTION_OFFSET, entry.contribution);
+        buffer.putFloat(entryOffset + STD140_ENTRY_LEVEL_OFFSET, entry.level);
+      }
+    }
+    return buffer.array();
+  }
+
+  private static byte[] readImportanceSampleCacheFile(File file, int expectedSize) {
+    if (!file.isFile()) {
+      return null;
+    }
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int size = input.readInt();
+      if (size != expectedSize) {
+        Log.w(TAG, "Ignoring importance sample cache file with unexpected size: " + file);
+        return null;
+      }
+      byte[] data = new byte[size];
+      input.readFully(data);
+      return data;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read importance sample cache file " + file, e);
+      return null;
+    }
+  }
+
+  private static void writeImportanceSampleCacheFile(File file, byte[] data) {
+    File directory = file.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      Log.w(TAG, "Failed to create importance sample cache directory " + directory);
+      return;
+    }
+    // Write to a temporary file first so that a crash never leaves a truncated file behind.
+    File temporaryFile = new File(directory, file.getName() + ".tmp");
+    try (DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+      output.writeInt(data.length);
+      output.write(data);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write importance sample cache file " + file, e);
+      temporaryFile.delete();
+      return;
+    }
+    if (!temporaryFile.renameTo(file)) {
+      Log.w(TAG, "Failed to commit importance sample cache file " + file);
+      temporaryFile.delete();
+    }
+  }
+
+  private int getStd140CacheStride() {
+    return STD140_CACHE_ENTRIES_OFFSET + numberOfImportanceSamples * STD140_ENTRY_STRIDE;
+  }
+
   /**
    * Generate a cache of importance sampling terms in tangent space, indexed by {@code
    * [roughnessLevel-1][sampleIndex]}.
@@ -457,6 +743,13 @@ public class SpecularCubemapFilter implements Closeable {
     return result;
   }
 
+  private static int getMaxUniformBlockSize() {
+    int[] result = new int[1];
+    GLES30.glGetIntegerv(GLES30.GL_MAX_UNIFORM_BLOCK_SIZE, result, 0);
+    GLError.maybeThrowGLException("Failed to get max uniform block size", "glGetIntegerv");
+    return result[0];
+  }
+
   private static int getMaxColorAttachments() {
     int[] result = new int[1];
     GLES30.glGetIntegerv(GLES30.GL_MAX_COLOR_ATTACHMENTS, result, 0);
@@ -480,6 +773,23 @@ public class SpecularCubemapFilter implements Closeable {
     return result;
   }
 
+  private static float halfToFloat(short half) {
+    int bits = half & 0xffff;
+    int exponent = (bits >>> 10) & 0x1f;
+    int mantissa = bits & 0x3ff;
+    float magnitude;
+    if (exponent == 0) {
+      // Subnormal: mantissa * 2^-24
+      magnitude = mantissa * (1f / (1 << 24));
+    } else if (exponent == 0x1f) {
+      magnitude = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+    } else {
+      // Rebias the exponent from 15 to 127.
+      magnitude = Float.intBitsToFloat(((exponent + 112) << 23) | (mantissa << 13));
+    }
+    return (bits & 0x8000) == 0 ? magnitude : -magnitude;
+  }
+
   private static float log4(float value) {
     return (float) (Math.log((double) value) / Math.log(4.0));
   }
@@ -0,0 +1,194 @@
+package com.google.ar.core.examples.java.helloar;
+
+import com.google.ar.core.Pose;
+
+import java.util.Arrays;
+
+/**
+ * 把 {@link ScanSnapshot} 的深度圖整理成可以反投影的深度，只在 {@link ScanWorker} 執行緒使用。
+ *
+ * <p>快照帶有置信度圖時（原始深度），置信度低於閾值的像素被丟棄。融合幀數大於 1 時，
+ * 連續若干幀按置信度加權平均成一張去噪的深度圖，湊滿幀數後才輸出一次；某個像素的新深度與累計均值相差過大時視為遮擋變化，
+ * 從新深度重新累計。相機移動或轉動超過閾值時同一像素已經對應不同的表面，此時提前輸出已累計的幀
+ * （只累計了一幀時即為單幀深度），再從新的一幀重新累計，這樣手持掃動時也能持續產生深度。
+ *
+ * <p>輸出的深度圖屬於累計開始時的相機位姿，反投影時要用 {@link #getViewMatrix} 和 {@link #getProjectionMatrix}，
+ * 而不是最後一個快照的矩陣。
+ */
+final class DepthIngestor {
+    // 與累計均值的相對偏差超過此值時重新累計
+    private static final float MAX_RELATIVE_DEVIATION = 0.05f;
+    // 融合期間相機允許的最大位移（米）和最大轉角（弧度）
+    private static final float MAX_TRANSLATION = 0.02f;
+    private static final float MAX_ROTATION = (float) Math.toRadians(2.0);
+
+    private int confidenceThreshold;
+    private int fusionFrameCount = 1;
+
+    private int width;
+    private int height;
+    private float[] depthSums = new float[0];
+    private float[] weightSums = new float[0];
+    private int[] observations = new int[0];
+    private int[] fusedDepths = new int[0];
+    private int accumulatedFrames;
+    private Pose referencePose;
+    private final float[] referenceViewMatrix = new float[16];
+    private final float[] referenceProjectionMatrix = new float[16];
+    // 上一次輸出的深度圖所屬的相機矩陣
+    private final float[] fusedViewMatrix = new float[16];
+    private final float[] fusedProjectionMatrix = new float[16];
+
+    private long acceptedSamples;
+    private long rejectedSamples;
+    private long resets;
+
+    /** 置信度閾值，0 到 255；沒有置信度圖的快照不受影響。 */
+    void setConfidenceThreshold(int confidenceThreshold) {
+        if (confidenceThreshold < 0 || confidenceThreshold > 255) {
+            throw new IllegalArgumentException("Confidence threshold must be in [0, 255]");
+        }
+        this.confidenceThreshold = confidenceThreshold;
+    }
+
+    /** 每次輸出融合的幀數，1 表示不做時間融合。修改後丟棄已累計的幀。 */
+    void setFusionFrameCount(int fusionFrameCount) {
+        if (fusionFrameCount <= 0) {
+            throw new IllegalArgumentException("Fusion frame count must be positive");
+        }
+        if (fusionFrameCount != this.fusionFrameCount) {
+            this.fusionFrameCount = fusionFrameCount;
+            reset();
+        }
+    }
+
+    /**
+     * 累計一幀深度。
+     *
+     * @return 湊滿融合幀數或因相機移動提前輸出、{@link #getDepthMillimeters} 可用時返回 true
+     */
+    boolean ingest(ScanSnapshot snapshot) {
+        boolean fused = false;
+        if (snapshot.depthWidth != width || snapshot.depthHeight != height) {
+            width = snapshot.depthWidth;
+            height = snapshot.depthHeight;
+            int size = width * height;
+            depthSums = new float[size];
+            weightSums = new float[size];
+            observations = new int[size];
+            fusedDepths = new int[size];
+            accumulatedFrames = 0;
+        } else if (accumulatedFrames > 0 && hasMoved(referencePose, snapshot.cameraPose)) {
+            fuse();
+            fused = true;
+            resets++;
+        }
+        if (accumulatedFrames == 0) {
+            referencePose = snapshot.cameraPose;
+            System.arraycopy(snapshot.viewMatrix, 0, referenceViewMatrix, 0, 16);
+            System.arraycopy(snapshot.projectionMatrix, 0, referenceProjectionMatrix, 0, 16);
+        }
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int depth = snapshot.getDepthMillimeters(x, y);
+                int confidence = snapshot.getConfidence(x, y);
+                if (depth == 0 || confidence < confidenceThreshold) {
+                    rejectedSamples++;
+                    continue;
+                }
+                acceptedSamples++;
+                int i = y * width + x;
+                // 置信度為 0 的像素在閾值為 0 時也保留，給一個最小權重
+                float weight = Math.max(confidence, 1);
+                if (weightSums[i] > 0) {
+                    float mean = depthSums[i] / weightSums[i];
+                    if (Math.abs(depth - mean) > mean * MAX_RELATIVE_DEVIATION) {
+                        depthSums[i] = 0;
+                        weightSums[i] = 0;
+                        observations[i] = 0;
+                    }
+                }
+                depthSums[i] += depth * weight;
+                weightSums[i] += weight;
+                observations[i]++;
+            }
+        }
+        // 提前輸出後這一幀是新一輪的第一幀，融合幀數大於 1 時不會同時湊滿
+        if (++accumulatedFrames < fusionFrameCount) {
+            return fused;
+        }
+        fuse();
+        return true;
+    }
+
+    /** 返回上一次輸出的深度圖 (x, y) 處的深度，單位毫米；無效或超出範圍時返回 0。 */
+    int getDepthMillimeters(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return 0;
+        }
+        return fusedDepths[y * width + x];
+    }
+
+    /** 上一次輸出的深度圖所屬的觀察矩陣。 */
+    float[] getViewMatrix() {
+        return fusedViewMatrix;
+    }
+
+    /** 上一次輸出的深度圖所屬的投影矩陣。 */
+    float[] getProjectionMatrix() {
+        return fusedProjectionMatrix;
+    }
+
+    long getAcceptedSamples() {
+        return acceptedSamples;
+    }
+
+    long getRejectedSamples() {
+        return rejectedSamples;
+    }
+
+    /** 因相機移動而提前輸出累計結果的次數。 */
+    long getResets() {
+        return resets;
+    }
+
+    // 把已累計的幀輸出到 fusedDepths 並清空累計
+    private void fuse() {
+        // 至少在一半的幀中出現過的像素才輸出，去掉閃爍的噪點
+        int minObservations = (accumulatedFrames + 1) / 2;
+        for (int i = 0; i < fusedDepths.length; i++) {
+            fusedDepths[i] =
+                    observations[i] >= minObservations
+                            ? Math.round(depthSums[i] / weightSums[i])
+                            : 0;
+        }
+        System.arraycopy(referenceViewMatrix, 0, fusedViewMatrix, 0, 16);
+        System.arraycopy(referenceProjectionMatrix, 0, fusedProjectionMatrix, 0, 16);
+        reset();
+    }
+
+    private void reset() {
+        Arrays.fill(depthSums, 0);
+        Arrays.fill(weightSums, 0);
+        Arrays.fill(observations, 0);
+        accumulatedFrames = 0;
+    }
+
+    private static boolean hasMoved(Pose from, Pose to) {
+        float dx = to.tx() - from.tx();
+        float dy = to.ty() - from.ty();
+        float dz = to.tz() - from.tz();
+        if (dx * dx + dy * dy + dz * dz > MAX_TRANSLATION * MAX_TRANSLATION) {
+            return true;
+        }
+        // 兩個單位四元數夾角的一半的餘弦等於點積的絕對值
+        float dot =
+                Math.abs(
+                        from.qx() * to.qx()
+                                + from.qy() * to.qy()
+                                + from.qz() * to.qz()
+                                + from.qw() * to.qw());
+        return dot < Math.cos(MAX_ROTATION * 0.5f);
+    }
+}
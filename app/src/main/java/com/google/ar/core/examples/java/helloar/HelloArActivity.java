@@ -19,7 +19,6 @@ package com.google.ar.core.examples.java.helloar;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Resources;
-import android.graphics.Color;
 import android.media.Image;
 import android.opengl.GLES30;
 import android.opengl.GLSurfaceView;
@@ -59,24 +58,36 @@ import com.google.ar.core.Session;
 import com.google.ar.core.Trackable;
 import com.google.ar.core.TrackingFailureReason;
 import com.google.ar.core.TrackingState;
+import com.google.ar.core.examples.java.common.helpers.AndroidTraceListener;
 import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper;
+import com.google.ar.core.examples.java.common.helpers.DebugOverlay;
+import com.google.ar.core.examples.java.common.helpers.DepthBufferPool;
 import com.google.ar.core.examples.java.common.helpers.DepthSettings;
 import com.google.ar.core.examples.java.common.helpers.DisplayRotationHelper;
 import com.google.ar.core.examples.java.common.helpers.FullScreenHelper;
 import com.google.ar.core.examples.java.common.helpers.InstantPlacementSettings;
+import com.google.ar.core.examples.java.common.helpers.ScanSettings;
 import com.google.ar.core.examples.java.common.helpers.PointCloudHelper;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.helpers.TapHelper;
+import com.google.ar.core.examples.java.common.helpers.TraceRecorder;
+import com.google.ar.core.examples.java.common.helpers.TrackedPlaneCache;
 import com.google.ar.core.examples.java.common.helpers.TrackingStateHelper;
 import com.google.ar.core.examples.java.common.samplerender.Framebuffer;
 import com.google.ar.core.examples.java.common.samplerender.GLError;
 import com.google.ar.core.examples.java.common.samplerender.Mesh;
+import com.google.ar.core.examples.java.common.samplerender.ProgramBinaryCache;
+import com.google.ar.core.examples.java.common.samplerender.RenderPassGraph;
+import com.google.ar.core.examples.java.common.samplerender.RenderPassGraph.Stage;
 import com.google.ar.core.examples.java.common.samplerender.SampleRender;
+import com.google.ar.core.examples.java.common.samplerender.ScreenBounds;
 import com.google.ar.core.examples.java.common.samplerender.Shader;
 import com.google.ar.core.examples.java.common.samplerender.Texture;
 import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
 import com.google.ar.core.examples.java.common.samplerender.arcore.BackgroundRenderer;
+import com.google.ar.core.examples.java.common.samplerender.arcore.PlaneMap;
 import com.google.ar.core.examples.java.common.samplerender.arcore.PlaneRenderer;
+import com.google.ar.core.examples.java.common.samplerender.arcore.PlaneRendererBenchmark;
 import com.google.ar.core.examples.java.common.samplerender.arcore.SpecularCubemapFilter;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
 import com.google.ar.core.exceptions.NotYetAvailableException;
@@ -86,12 +97,13 @@ import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
 import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 
@@ -126,6 +138,34 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
 
     private static final int CUBEMAP_RESOLUTION = 16;
     private static final int CUBEMAP_NUMBER_OF_IMPORTANCE_SAMPLES = 32;
+    // Spread the cubemap prefilter over several frames; lighting changes slowly enough.
+    private static final int CUBEMAP_MIPMAP_LEVELS_PER_FRAME = 1;
+
+    private static final String SHADER_CACHE_DIRECTORY = "shader_programs";
+
+    // 儲存檢測到的平面，下次啟動時先顯示已知平面作為預覽
+    private static final String PLANE_MAP_FILE_NAME = "plane_map.bin";
+    // 每幀最多上傳的已儲存平面數，避免載入大地圖時卡頓
+    private static final int SAVED_PLANES_PER_FRAME = 4;
+
+    // 啟動耗時追蹤，首幀繪製後輸出統計和 Chrome trace
+    private static final int STARTUP_TRACE_CAPACITY = 256;
+    private static final String STARTUP_TRACE_FILE_NAME = "startup_trace.json";
+    // 平面基準測試的規模：數百個平面，模擬若干幀
+    private static final int PLANE_BENCHMARK_PLANES = 500;
+    private static final int PLANE_BENCHMARK_FRAMES = 1000;
+
+    // 渲染階段名稱，用於 SampleRender 的 CPU/GPU 分階段計時
+    private static final String PASS_BACKGROUND = "background";
+    private static final String PASS_POINT_CLOUD = "pointCloud";
+    private static final String PASS_PLANES = "planes";
+    private static final String PASS_LIGHTING = "lighting";
+    private static final String PASS_VIRTUAL_SCENE = "virtualScene";
+    private static final String PASS_OCCLUSION_MASK = "occlusionMask";
+    private static final String PASS_OCCLUSION_COMPOSITE = "occlusionComposite";
+    // 每隔一段時間在 UI 執行緒讀取一次幀統計並輸出到日誌
+    private static final long FRAME_STATS_LOG_INTERVAL_MS = 5000;
+    private static final int FRAME_STATS_WINDOW = 120;
 
     // Rendering. The Renderers are created here, and initialized when the GL surface is created.
     private BackgroundRenderer depthBackgroundRender;
@@ -141,6 +181,31 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     private final TrackingStateHelper trackingStateHelper = new TrackingStateHelper(this);
     private TapHelper tapHelper;
     private SampleRender render;
+    private ProgramBinaryCache programBinaryCache;
+
+    private final TraceRecorder traceRecorder = new TraceRecorder(STARTUP_TRACE_CAPACITY);
+    private long createNanos;
+    private boolean hasDumpedStartupTrace = false;
+
+    private final Runnable frameStatsLogger =
+            new Runnable() {
+                @Override
+                public void run() {
+                    Log.i(TAG, "Frame stats: " + render.getFrameStats().snapshot(FRAME_STATS_WINDOW));
+                    surfaceView.postDelayed(this, FRAME_STATS_LOG_INTERVAL_MS);
+                }
+            };
+
+    // 每幀按固定階段順序執行的渲染 pass，重複的全螢幕 pass 會被拒絕
+    private final RenderPassGraph renderPassGraph = new RenderPassGraph();
+    // 當前幀的狀態，供各渲染 pass 使用，只在 GL 執行緒存取
+    private Frame currentFrame;
+    private Camera currentCamera;
+    // 由每幀的 getUpdatedTrackables 增量維護的平面集合，代替逐幀枚舉 getAllTrackables
+    private final TrackedPlaneCache trackedPlanes = new TrackedPlaneCache();
+    private PlaneMap.Loader planeMapLoader;
+    // 本幀虛擬物體在螢幕上的包圍矩形，合成 pass 只處理這個範圍內的像素
+    private final ScreenBounds virtualSceneBounds = new ScreenBounds();
 
     private PlaneRenderer planeRenderer;
     private BackgroundRenderer backgroundRenderer;
@@ -148,10 +213,16 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     private boolean hasSetTextureNames = false;
 
     private final DepthSettings depthSettings = new DepthSettings();
-    private boolean[] depthSettingsMenuDialogCheckboxes = new boolean[2];
+    private boolean[] depthSettingsMenuDialogCheckboxes = new boolean[3];
 
     private final InstantPlacementSettings instantPlacementSettings = new InstantPlacementSettings();
     private boolean[] instantPlacementSettingsMenuDialogCheckboxes = new boolean[1];
+
+    private final ScanSettings scanSettings = new ScanSettings();
+    private boolean[] scanSettingsMenuDialogCheckboxes = new boolean[3];
+
+    // 每個渲染 pass 一個勾選框，用於單獨關閉某個 pass 來衡量它的開銷，不保存
+    private boolean[] renderPassSettingsMenuDialogCheckboxes;
     // Assumed distance from the device camera to the surface on which user will try to place objects.
     // This value affects the apparent scale of objects while the tracking method of the
     // Instant Placement point is SCREENSPACE_WITH_APPROXIMATE_DISTANCE.
@@ -170,6 +241,9 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     // was not changed.  Do this using the timestamp since we can't compare PointCloud objects.
     private long lastPointCloudTimestamp = 0;
     private long lastCameraImageTimestamp = 0;
+    // 深度圖的更新頻率低於相機幀率，同樣用時間戳判斷深度圖是否更新，沒有新深度時跳過上傳和掃描採集
+    private long lastDepthImageTimestamp = 0;
+    private long lastScanDepthTimestamp = 0;
 
     // Virtual object (ARCore pawn)
     private Mesh virtualObjectMesh;
@@ -181,6 +255,7 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     // Environmental HDR
     private Texture dfgTexture;
     private SpecularCubemapFilter cubemapFilter;
+    private long lastLightEstimateTimestamp;
 
     // Temporary matrix allocated here to reduce number of allocations for each frame.
     private final float[] modelMatrix = new float[16];
@@ -192,9 +267,12 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     private final float[] viewInverseMatrix = new float[16];
     private final float[] worldLightDirection = {0.0f, 0.0f, 0.0f, 0.0f};
     private final float[] viewLightDirection = new float[4]; // view x world light direction
+    private final float[] tapPlaneNormal = new float[3]; // handleTap 中計算平面距離用的臨時陣列
     private boolean firstDraw = true;
     private int viewWidth;
     private int viewHeight;
+    // 已儲存平面俯視圖在螢幕右下角的區域 {x, y, 寬, 高}，GL 視窗座標（原點在左下角）
+    private final int[] savedPlaneOverviewRect = new int[4];
     private float deg = 0;
 
     private TextView degView;
@@ -203,21 +281,76 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     private ToggleButton toggleButton;
     private boolean toggleMode = false;
     private boolean isContinue = true;
-    private ArrayList<Float> glX = new ArrayList<Float>();
-    private ArrayList<Float> glY = new ArrayList<Float>();
-    private ArrayList<Float> glZ = new ArrayList<Float>();
-    private ArrayList<Float> glStore = new ArrayList<Float>();
 
+    // 深度圖副本的緩衝池：佇列中的快照、正在處理的快照和正在採集的快照各佔一個
+    private final DepthBufferPool depthBufferPool =
+            new DepthBufferPool(ScanWorker.QUEUE_CAPACITY + 2);
+    // 原始深度的置信度圖副本，與深度圖副本一一對應
+    private final DepthBufferPool confidenceBufferPool =
+            new DepthBufferPool(ScanWorker.QUEUE_CAPACITY + 2);
+
+    // 掃描預設使用原始深度：沒有經過平滑，配合置信度過濾和多幀融合，得到的點更少也更準。
+    // 三者都可以在設定選單中關閉，關閉過濾時閾值為 0，關閉融合時逐幀反投影
+    private static final int SCAN_CONFIDENCE_THRESHOLD = 128;
+    private static final int SCAN_FUSION_FRAME_COUNT = 3;
+
+    // 掃描：GL 執行緒只採集幀快照，反投影、去重和儲存都在 ScanWorker 執行緒完成
+    private final ScanWorker scanWorker = new ScanWorker();
+    // 掃描時根據 GL 執行緒和掃描執行緒的開銷自動調整取樣密度，目標幀率決定開銷預算
+    private static final int SCAN_TARGET_FPS = 30;
+    private final ScanGovernor scanGovernor = new ScanGovernor(SCAN_TARGET_FPS);
+
+    // 除錯資訊：計數器在 GL 執行緒累加，最多每 100ms 刷新一次文字，只保留最近的若干行
+    private static final int DEBUG_OVERLAY_MAX_LINES = 8;
+    private static final long DEBUG_OVERLAY_INTERVAL_MS = 100;
+    private DebugOverlay debugOverlay;
+    private int frameCounter;
+    private int scanSubmittedCounter;
+    private int scanDroppedCounter;
+    private int scanProcessedCounter;
+    private int scanPointsCounter;
+    private int depthPoolExhaustedCounter;
+    private int scanLoadCounter;
+    private int scanLevelCounter;
+    private int scanGridStepCounter;
+    private int scanMaxSamplesCounter;
+    private int scanDepthSkipCounter;
+    private int depthUploadCounter;
+    private int depthUploadSkippedCounter;
+    private int scanAcceptedCounter;
+    private int scanRejectedCounter;
+    private int scanFusionResetCounter;
 
     //region Implement View Event
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        createNanos = System.nanoTime();
+        traceRecorder.setSectionListener(new AndroidTraceListener());
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         surfaceView = findViewById(R.id.surfaceview);
         depthSurfaceView = findViewById(R.id.surfaceview);
         scrollView = findViewById(R.id.scrollView);
         degView = findViewById(R.id.textDeg);
+        debugOverlay =
+                new DebugOverlay(degView, DEBUG_OVERLAY_MAX_LINES, DEBUG_OVERLAY_INTERVAL_MS);
+        frameCounter = debugOverlay.addCounter("frames");
+        scanSubmittedCounter = debugOverlay.addCounter("scan");
+        scanDroppedCounter = debugOverlay.addCounter("dropped");
+        scanProcessedCounter = debugOverlay.addCounter("processed");
+        scanPointsCounter = debugOverlay.addCounter("points");
+        depthPoolExhaustedCounter = debugOverlay.addCounter("poolExhausted");
+        scanLoadCounter = debugOverlay.addCounter("load");
+        scanLevelCounter = debugOverlay.addCounter("level");
+        scanGridStepCounter = debugOverlay.addCounter("step");
+        scanMaxSamplesCounter = debugOverlay.addCounter("samples");
+        scanDepthSkipCounter = debugOverlay.addCounter("skip");
+        depthUploadCounter = debugOverlay.addCounter("depthUploads");
+        depthUploadSkippedCounter = debugOverlay.addCounter("depthSkipped");
+        scanAcceptedCounter = debugOverlay.addCounter("accepted");
+        scanRejectedCounter = debugOverlay.addCounter("rejected");
+        scanFusionResetCounter = debugOverlay.addCounter("resets");
+
         displayRotationHelper = new DisplayRotationHelper(/*context=*/ this);
 
 
@@ -239,11 +372,11 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
                 if (isChecked) //當按鈕狀態為選取時
                 {
 //                    degView.append("calculateWP Thread id " +  Thread.currentThread().getId());
-                    degView.append("toggleButton is " + isChecked);
+                    debugOverlay.log("toggleButton is " + isChecked);
                     toggleMode = isChecked; //true
                 } else //當按鈕狀態為未選取時
                 {
-                    degView.append("toggleButton is " + isChecked);
+                    debugOverlay.log("toggleButton is " + isChecked);
                     toggleMode = isChecked; //false
                 }
             }
@@ -271,7 +404,7 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
 //                        intent.putExtra("X_key", glX);
 //                        intent.putExtra("Y_key", glY);
 //                        intent.putExtra("Z_key", glZ);
-                        intent.putExtra("Store_key", glStore);
+                        intent.putExtra("Store_key", scanWorker.copyPoints());
                         startActivity(intent);//切換
                     }
                 });
@@ -287,6 +420,13 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
         render = new
 
                 SampleRender(surfaceView, this, getAssets());
+        // 快取已連結的著色器程式二進位，避免每次啟動都重新編譯
+        programBinaryCache =
+                new ProgramBinaryCache(new File(getCodeCacheDir(), SHADER_CACHE_DIRECTORY));
+        render.setProgramBinaryCache(programBinaryCache);
+        createRenderPasses();
+        renderPassSettingsMenuDialogCheckboxes = new boolean[renderPassGraph.getPasses().size()];
+        planeMapLoader = PlaneMap.load(new File(getFilesDir(), PLANE_MAP_FILE_NAME));
 //    depthRender=new SampleRender(depthSurfaceView, new SampleRender.Renderer() {
 //      @Override
 //      public void onSurfaceCreated(SampleRender render) {
@@ -340,6 +480,8 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
 
         depthSettings.onCreate(this);
         instantPlacementSettings.onCreate(this);
+        scanSettings.onCreate(this);
+        applyScanSettings();
         ImageButton settingsButton = findViewById(R.id.settings_button);
         settingsButton.setOnClickListener(
                 new View.OnClickListener() {
@@ -363,6 +505,12 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
         } else if (item.getItemId() == R.id.instant_placement_settings) {
             launchInstantPlacementSettingsMenuDialog();
             return true;
+        } else if (item.getItemId() == R.id.scan_settings) {
+            launchScanSettingsMenuDialog();
+            return true;
+        } else if (item.getItemId() == R.id.render_pass_settings) {
+            launchRenderPassSettingsMenuDialog();
+            return true;
         }
         return false;
     }
@@ -406,7 +554,12 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
                 }
 
                 // Create the session.
-                session = new Session(/* context= */ this);
+                long traceStart = traceRecorder.beginSection("onResume.createSession");
+                try {
+                    session = new Session(/* context= */ this);
+                } finally {
+                    traceRecorder.endSection("onResume.createSession", traceStart);
+                }
             } catch (UnavailableArcoreNotInstalledException
                     | UnavailableUserDeclinedInstallationException e) {
                 message = "Please install ARCore";
@@ -434,14 +587,24 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
 
         // Note that order matters - see the note in onPause(), the reverse applies here.
         try {
-            configureSession();
+            long traceStart = traceRecorder.beginSection("onResume.configureSession");
+            try {
+                configureSession();
+            } finally {
+                traceRecorder.endSection("onResume.configureSession", traceStart);
+            }
             // To record a live camera session for later playback, call
             // `session.startRecording(recorderConfig)` at anytime. To playback a previously recorded AR
             // session instead of using the live camera feed, call
             // `session.setPlaybackDataset(playbackDatasetPath)` before calling `session.resume()`. To
             // learn more about recording and playback, see:
             // https://developers.google.com/ar/develop/java/recording-and-playback
-            session.resume();
+            traceStart = traceRecorder.beginSection("onResume.resumeSession");
+            try {
+                session.resume();
+            } finally {
+                traceRecorder.endSection("onResume.resumeSession", traceStart);
+            }
         } catch (CameraNotAvailableException e) {
             messageSnackbarHelper.showError(this, "Camera not available. Try restarting the app.");
             session = null;
@@ -450,11 +613,14 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
         depthSurfaceView.onResume();
         surfaceView.onResume();
         displayRotationHelper.onResume();
+        surfaceView.postDelayed(frameStatsLogger, FRAME_STATS_LOG_INTERVAL_MS);
+        scanWorker.start();
     }
 
     @Override
     public void onPause() {
         super.onPause();
+        surfaceView.removeCallbacks(frameStatsLogger);
         if (session != null) {
             // Note that the order matters - GLSurfaceView is paused first so that it does not try
             // to query the session. If Session is paused before GLSurfaceView, GLSurfaceView may
@@ -462,8 +628,12 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
             displayRotationHelper.onPause();
             surfaceView.onPause();
             depthSurfaceView.onPause();
+            // GL 執行緒已暫停，可以在這裡讀取 trackedPlanes
+            savePlaneMap();
             session.pause();
         }
+        // GL 執行緒暫停後不會再投遞快照，此時可以安全地停止掃描執行緒
+        scanWorker.stop();
     }
 
     @Override
@@ -493,14 +663,34 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     public void onSurfaceCreated(SampleRender render) {
         // Prepare the rendering objects. This involves reading shaders and 3D model files, so may throw
         // an IOException.
+        long surfaceTraceStart = traceRecorder.beginSection("onSurfaceCreated");
         try {
-            planeRenderer = new PlaneRenderer(render);
-            backgroundRenderer = new BackgroundRenderer(render);
-            virtualSceneFramebuffer = new Framebuffer(render, /*width=*/ 1, /*height=*/ 1);
+            long traceStart = traceRecorder.beginSection("onSurfaceCreated.renderers");
+            try {
+                planeRenderer = new PlaneRenderer(render);
+                // 大場景中平面很多，合併成一次繪製；平面不變時不重新上傳
+                planeRenderer.setBatchingEnabled(true);
+                backgroundRenderer = new BackgroundRenderer(render);
+                virtualSceneFramebuffer = new Framebuffer(render, /*width=*/ 1, /*height=*/ 1);
+            } finally {
+                traceRecorder.endSection("onSurfaceCreated.renderers", traceStart);
+            }
 
-            cubemapFilter =
-                    new SpecularCubemapFilter(
-                            render, CUBEMAP_RESOLUTION, CUBEMAP_NUMBER_OF_IMPORTANCE_SAMPLES);
+            traceStart = traceRecorder.beginSection("onSurfaceCreated.cubemapFilter");
+            try {
+                cubemapFilter =
+                        new SpecularCubemapFilter(
+                                render,
+                                CUBEMAP_RESOLUTION,
+                                CUBEMAP_NUMBER_OF_IMPORTANCE_SAMPLES,
+                                /*cacheDirectory=*/ getCacheDir());
+            } finally {
+                traceRecorder.endSection("onSurfaceCreated.cubemapFilter", traceStart);
+            }
+            cubemapFilter.setMipmapLevelsPerUpdate(CUBEMAP_MIPMAP_LEVELS_PER_FRAME);
+            lastLightEstimateTimestamp = 0;
+            // 深度紋理隨 GL 上下文重建，清零時間戳使下一幀重新上傳深度圖
+            lastDepthImageTimestamp = 0;
             // Load DFG lookup table for environmental lighting
             dfgTexture =
                     new Texture(
@@ -515,8 +705,11 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
 
             ByteBuffer buffer =
                     ByteBuffer.allocateDirect(dfgResolution * dfgResolution * dfgChannels * halfFloatSize);
+            traceStart = traceRecorder.beginSection("onSurfaceCreated.readDfg");
             try (InputStream is = getAssets().open("models/dfg.raw")) {
                 is.read(buffer.array());
+            } finally {
+                traceRecorder.endSection("onSurfaceCreated.readDfg", traceStart);
             }
             // SampleRender abstraction leaks here.
             GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, dfgTexture.getTextureId());
@@ -549,38 +742,58 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
                             render, Mesh.PrimitiveMode.POINTS, /*indexBuffer=*/ null, pointCloudVertexBuffers);
 
             // Virtual object to render (ARCore pawn)
-            Texture virtualObjectAlbedoTexture =
-                    Texture.createFromAsset(
-                            render,
-                            "models/pawn_albedo.png",
-                            Texture.WrapMode.CLAMP_TO_EDGE,
-                            Texture.ColorFormat.SRGB);
-            Texture virtualObjectPbrTexture =
-                    Texture.createFromAsset(
-                            render,
-                            "models/pawn_roughness_metallic_ao.png",
-                            Texture.WrapMode.CLAMP_TO_EDGE,
-                            Texture.ColorFormat.LINEAR);
-            virtualObjectMesh = Mesh.createFromAsset(render, "models/pawn.obj");
-            virtualObjectShader =
-                    Shader.createFromAssets(
-                            render,
-                            "shaders/environmental_hdr.vert",
-                            "shaders/environmental_hdr.frag",
-                            /*defines=*/ new HashMap<String, String>() {
-                                {
-                                    put(
-                                            "NUMBER_OF_MIPMAP_LEVELS",
-                                            Integer.toString(cubemapFilter.getNumberOfMipmapLevels()));
-                                }
-                            })
-                            .setTexture("u_AlbedoTexture", virtualObjectAlbedoTexture)
-                            .setTexture("u_RoughnessMetallicAmbientOcclusionTexture", virtualObjectPbrTexture)
-                            .setTexture("u_Cubemap", cubemapFilter.getFilteredCubemapTexture())
-                            .setTexture("u_DfgTexture", dfgTexture);
+            Texture virtualObjectAlbedoTexture;
+            Texture virtualObjectPbrTexture;
+            traceStart = traceRecorder.beginSection("onSurfaceCreated.decodeTextures");
+            try {
+                virtualObjectAlbedoTexture =
+                        Texture.createFromAsset(
+                                render,
+                                "models/pawn_albedo.png",
+                                Texture.WrapMode.CLAMP_TO_EDGE,
+                                Texture.ColorFormat.SRGB);
+                virtualObjectPbrTexture =
+                        Texture.createFromAsset(
+                                render,
+                                "models/pawn_roughness_metallic_ao.png",
+                                Texture.WrapMode.CLAMP_TO_EDGE,
+                                Texture.ColorFormat.LINEAR);
+            } finally {
+                traceRecorder.endSection("onSurfaceCreated.decodeTextures", traceStart);
+            }
+            traceStart = traceRecorder.beginSection("onSurfaceCreated.parseObj");
+            try {
+                virtualObjectMesh = Mesh.createFromAsset(render, "models/pawn.obj");
+            } finally {
+                traceRecorder.endSection("onSurfaceCreated.parseObj", traceStart);
+            }
+            traceStart = traceRecorder.beginSection("onSurfaceCreated.virtualObjectShader");
+            try {
+                virtualObjectShader =
+                        Shader.createFromAssets(
+                                render,
+                                "shaders/environmental_hdr.vert",
+                                "shaders/environmental_hdr.frag",
+                                /*defines=*/ new HashMap<String, String>() {
+                                    {
+                                        put(
+                                                "NUMBER_OF_MIPMAP_LEVELS",
+                                                Integer.toString(cubemapFilter.getNumberOfMipmapLevels()));
+                                    }
+                                })
+                                .setTexture("u_AlbedoTexture", virtualObjectAlbedoTexture)
+                                .setTexture("u_RoughnessMetallicAmbientOcclusionTexture", virtualObjectPbrTexture)
+                                .setTexture("u_Cubemap", cubemapFilter.getFilteredCubemapTexture())
+                                .setTexture("u_DfgTexture", dfgTexture);
+            } finally {
+                traceRecorder.endSection("onSurfaceCreated.virtualObjectShader", traceStart);
+            }
+            Log.i(TAG, "Shader programs: " + programBinaryCache.getStatistics());
         } catch (IOException e) {
             Log.e(TAG, "Failed to read a required asset file", e);
             messageSnackbarHelper.showError(this, "Failed to read a required asset file: " + e);
+        } finally {
+            traceRecorder.endSection("onSurfaceCreated", surfaceTraceStart);
         }
     }
 
@@ -590,14 +803,14 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
         virtualSceneFramebuffer.resize(width, height);
         viewWidth = width;
         viewHeight = height;
+        int overviewSize = Math.min(width, height) / 3;
+        int overviewMargin = overviewSize / 10;
+        savedPlaneOverviewRect[0] = width - overviewSize - overviewMargin;
+        savedPlaneOverviewRect[1] = overviewMargin;
+        savedPlaneOverviewRect[2] = overviewSize;
+        savedPlaneOverviewRect[3] = overviewSize;
 //        deg = displayRotationHelper.GetDisplayRotation();
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                String msg = String.format("widrh:%d\r\nheight:%d\r\ndeg:%f", viewWidth, viewHeight, deg);
-                degView.setText(msg);
-            }
-        });
+        debugOverlay.log(String.format("width:%d height:%d deg:%f", viewWidth, viewHeight, deg));
 
     }
 
@@ -634,19 +847,18 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
             messageSnackbarHelper.showError(this, "Camera not available. Try restarting the app.");
             return;
         }
+        trackedPlanes.update(frame);
         Camera camera = frame.getCamera();
+        currentFrame = frame;
+        currentCamera = camera;
+        updateDebugOverlay();
 
 
         // Update BackgroundRenderer state to match the depth settings.
-        try {
-            backgroundRenderer.setUseDepthVisualization(
-                    render, depthSettings.depthColorVisualizationEnabled());
-            backgroundRenderer.setUseOcclusion(render, depthSettings.useDepthForOcclusion());
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to read a required asset file", e);
-            messageSnackbarHelper.showError(this, "Failed to read a required asset file: " + e);
-            return;
-        }
+        backgroundRenderer.setUseDepthVisualization(depthSettings.depthColorVisualizationEnabled());
+        backgroundRenderer.setUseOcclusion(depthSettings.useDepthForOcclusion());
+        // 低解析度遮擋可以在深度設定選單中切換，用於比較畫質和 occlusionMask/occlusionComposite 的耗時
+        backgroundRenderer.setUseLowResolutionOcclusion(depthSettings.useLowResolutionOcclusion());
         // BackgroundRenderer.updateDisplayGeometry must be called every frame to update the coordinates
         // used to draw the background camera image.
         backgroundRenderer.updateDisplayGeometry(frame);
@@ -655,15 +867,20 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
                 && (depthSettings.useDepthForOcclusion()
                 || depthSettings.depthColorVisualizationEnabled())) {
             try (Image depthImage = frame.acquireDepthImage()) {
-                backgroundRenderer.updateCameraDepthTexture(depthImage);
+                if (depthImage.getTimestamp() != lastDepthImageTimestamp) {
+                    backgroundRenderer.updateCameraDepthTexture(depthImage);
+                    lastDepthImageTimestamp = depthImage.getTimestamp();
+                    debugOverlay.add(depthUploadCounter, 1);
+                } else {
+                    // 深度圖與上次上傳的相同，紋理內容仍然有效
+                    debugOverlay.add(depthUploadSkippedCounter, 1);
+                }
             } catch (NotYetAvailableException e) {
                 // This normally means that depth data is not available yet. This is normal so we will not
                 // spam the logcat with this.
             }
         }
 
-        Collection<Plane> planes = session.getAllTrackables(Plane.class);
-        FloatBuffer pointCloudValue = null;
         // Get projection matrix.
         camera.getProjectionMatrix(projectionMatrix, 0, Z_NEAR, Z_FAR);
 
@@ -697,11 +914,22 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
 
         //autoScan
         if (toggleMode) {
-            degView.append("hi");
-            autoScan(frame);
+            // 用上一幀 GL 執行緒的 CPU 時間和掃描執行緒的開銷決定檔位，而不是幀間隔
+            scanGovernor.onFrame(
+                    System.nanoTime(),
+                    render.getFrameStats().getLastFrameCpuNanos(),
+                    scanWorker);
+            if (scanGovernor.shouldCaptureThisFrame()) {
+                captureScanSnapshot(frame, camera);
+            }
+        } else {
+            scanGovernor.reset();
         }
 
-        backgroundRenderer.drawBackground(render);
+        // -- Draw background
+
+        renderPassGraph.beginFrame();
+        renderPassGraph.executeStage(render, Stage.BACKGROUND);
 
         // Handle one tap per frame.
         handleTap(frame, camera);
@@ -719,7 +947,7 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
             } else {
                 message = TrackingStateHelper.getTrackingFailureReasonString(camera);
             }
-        } else if (hasTrackingPlane()) {
+        } else if (trackedPlanes.hasTrackingPlane()) {
             if (anchors.isEmpty()) {
                 message = WAITING_FOR_TAP_MESSAGE;
             }
@@ -732,74 +960,106 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
             messageSnackbarHelper.showMessage(this, message);
         }
 
-        // -- Draw background
-
-        if (frame.getTimestamp() != 0) {
-            // Suppress rendering if the camera did not produce the first frame yet. This is to avoid
-            // drawing possible leftover data from previous sessions if the texture is reused.
-            backgroundRenderer.drawBackground(render);
-        }
-
         // If not tracking, don't draw 3D objects.
         if (camera.getTrackingState() == TrackingState.PAUSED) {
             return;
         }
 
-        // -- Draw non-occluded virtual objects (planes, point cloud)
-
+        // -- Draw planes, point cloud, virtual objects and compose them with the background
+        renderPassGraph.executeStages(render, Stage.WORLD_GEOMETRY, Stage.COMPOSITE);
+    }
 
-//    PointCloudHelper.GetPointCloud(frame,viewWidth,viewHeight,10);
+    // 註冊每幀的渲染 pass。背景是唯一覆蓋整個螢幕的 pass，重複繪製會被 RenderPassGraph 拒絕
+    private void createRenderPasses() {
+        renderPassGraph.addFullScreenPass(
+                PASS_BACKGROUND, Stage.BACKGROUND, /*target=*/ null, this::drawBackgroundPass);
+        renderPassGraph.addPass(PASS_POINT_CLOUD, Stage.WORLD_GEOMETRY, this::drawPointCloudPass);
+        renderPassGraph.addPass(PASS_PLANES, Stage.WORLD_GEOMETRY, this::drawPlanesPass);
+        renderPassGraph.addPass(
+                PASS_LIGHTING,
+                Stage.VIRTUAL_SCENE,
+                render -> updateLightEstimation(currentFrame.getLightEstimate(), viewMatrix));
+        renderPassGraph.addPass(PASS_VIRTUAL_SCENE, Stage.VIRTUAL_SCENE, this::drawAnchorsPass);
+        // 低解析度遮擋開啟時先算遮擋遮罩，兩個 pass 分別計時，便於比較開銷
+        renderPassGraph.addPass(
+                PASS_OCCLUSION_MASK,
+                Stage.COMPOSITE,
+                render ->
+                        backgroundRenderer.drawOcclusionMask(
+                                render, virtualSceneFramebuffer, Z_NEAR, Z_FAR, virtualSceneBounds));
+        renderPassGraph.addPass(
+                PASS_OCCLUSION_COMPOSITE,
+                Stage.COMPOSITE,
+                render ->
+                        backgroundRenderer.drawVirtualScene(
+                                render, virtualSceneFramebuffer, Z_NEAR, Z_FAR, virtualSceneBounds));
+    }
 
-//    pointCloudValue=PointCloudHelper.CalcPointCloud(modelViewProjectionMatrix,viewWidth,viewHeight,10);
-//    try (Image cameraImage = frame.acquireCameraImage()){
-//      long currentCameraTimestamp=cameraImage.getTimestamp();
-//      if(currentCameraTimestamp > lastCameraImageTimestamp){
-//        PointCloudHelper.WriteImageToSD(this,cameraImage);
-//        lastCameraImageTimestamp=currentCameraTimestamp;
-//      }
-//    } catch (NotYetAvailableException e) {
-//      messageSnackbarHelper.showError(this, "Failed to Write a required asset file: " + e);
-//    }
+    private void drawBackgroundPass(SampleRender render) {
+        // Suppress rendering if the camera did not produce the first frame yet. This is to avoid
+        // drawing possible leftover data from previous sessions if the texture is reused.
+        if (currentFrame.getTimestamp() == 0) {
+            return;
+        }
+        backgroundRenderer.drawBackground(render);
 
+        if (!hasDumpedStartupTrace) {
+            hasDumpedStartupTrace = true;
+            traceRecorder.record(
+                    "coldStart.firstCameraFrame",
+                    createNanos,
+                    System.nanoTime() - createNanos,
+                    Thread.currentThread().getId());
+            dumpStartupTrace();
+        }
+    }
 
+    private void drawPointCloudPass(SampleRender render) {
         // Visualize tracked points.
         // Use try-with-resources to automatically release the point cloud.
-        if (pointCloudValue == null) {
-            try (PointCloud pointCloud = frame.acquirePointCloud()) {
-                if (pointCloud.getTimestamp() > lastPointCloudTimestamp) {
-                    pointCloudVertexBuffer.set(pointCloud.getPoints());
-                    lastPointCloudTimestamp = pointCloud.getTimestamp();
-                }
-                pointCloudShader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix);
-                render.draw(pointCloudMesh, pointCloudShader);
+        try (PointCloud pointCloud = currentFrame.acquirePointCloud()) {
+            if (pointCloud.getTimestamp() > lastPointCloudTimestamp) {
+                pointCloudVertexBuffer.set(pointCloud.getPoints());
+                lastPointCloudTimestamp = pointCloud.getTimestamp();
             }
-        } else {
-            pointCloudVertexBuffer.set(pointCloudValue);
             pointCloudShader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix);
             render.draw(pointCloudMesh, pointCloudShader);
         }
+    }
 
+    private void drawPlanesPass(SampleRender render) {
+        // 還沒檢測到平面時在角落以俯視圖顯示上次儲存的平面；檢測到後釋放預覽。
+        // 儲存的位姿屬於上一個 session 的世界座標系，無法與目前的相機對齊，所以不疊加在相機畫面上
+        if (trackedPlanes.hasTrackingPlane()) {
+            if (planeMapLoader != null) {
+                planeMapLoader.cancel();
+                planeMapLoader = null;
+                planeRenderer.clearSavedPlanes();
+            }
+        } else if (planeMapLoader != null) {
+            PlaneMap.SavedPlane savedPlane;
+            for (int i = 0; i < SAVED_PLANES_PER_FRAME
+                    && (savedPlane = planeMapLoader.poll()) != null; i++) {
+                planeRenderer.addSavedPlane(savedPlane);
+            }
+            planeRenderer.drawSavedPlaneOverview(
+                    render, savedPlaneOverviewRect, viewWidth, viewHeight);
+        }
 
         // Visualize planes.
         planeRenderer.drawPlanes(
                 render,
-                planes,
-                camera.getDisplayOrientedPose(),
+                trackedPlanes.getPlanes(),
+                trackedPlanes.getUpdatedPlanes(),
+                currentCamera.getDisplayOrientedPose(),
                 projectionMatrix);
+    }
 
-        // -- Draw occluded virtual objects
-
-        // Update lighting parameters in the shader
-        updateLightEstimation(frame.getLightEstimate(), viewMatrix);
-
+    private void drawAnchorsPass(SampleRender render) {
         // Visualize anchors created by touch.
         render.clear(virtualSceneFramebuffer, 0f, 0f, 0f, 0f);
+        virtualSceneBounds.reset();
         for (Anchor anchor : anchors) {
-            TrackingState anchorTracjing = anchor.getTrackingState();
-//      if (anchor.getTrackingState() != TrackingState.TRACKING) {
-//        continue;
-//      }
-
             // Get the current pose of an Anchor in world space. The Anchor pose is updated
             // during calls to session.update() as ARCore refines its estimate of the world.
             anchor.getPose().toMatrix(modelMatrix, 0);
@@ -812,160 +1072,108 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
             virtualObjectShader.setMat4("u_ModelView", modelViewMatrix);
             virtualObjectShader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix);
             render.draw(virtualObjectMesh, virtualObjectShader, virtualSceneFramebuffer);
+            virtualSceneBounds.addBox(modelViewProjectionMatrix, virtualObjectMesh.getBounds());
         }
-
-        // Compose the virtual scene with the background.
-        backgroundRenderer.drawVirtualScene(render, virtualSceneFramebuffer, Z_NEAR, Z_FAR);
     }
 
 
-    private void toWorldCoordinate(float xcor, float ycor, Frame frame) {
-
-        float[] viewProjectMatrix = new float[16];
-        Matrix.multiplyMM(viewProjectMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
-
-
-        // 點擊的x座標(世界)
-        float x = xcor;
-        // 點擊的y座標(世界)
-        float y = ycor;
-        float depthXScale = 1;
-        float depthYScale = 1;
-        //viewWidth、Height -> 螢幕寬高
-        float xStep = 1f / viewWidth;
-        float yStep = 1f / viewHeight;
-        int bufferSize = viewHeight * viewWidth * 4;
-        ByteBuffer colorBuffer = ByteBuffer.allocateDirect(bufferSize);
-        ByteBuffer depthBuffer = ByteBuffer.allocateDirect(bufferSize / 2);
-//          GLES30.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,backgroundRenderer.getCameraColorTexture().getTextureId());
-        GLES30.glReadPixels(0, 0, viewWidth, viewHeight, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, colorBuffer);
-//          GLES30.glBindTexture(GLES30.GL_TEXTURE_2D,backgroundRenderer.getCameraDepthTexture().getTextureId());
-//          GLES30.glReadPixels(0,0,viewWidth,viewHeight,GLES30.GL_RG8,GLES30.GL_UNSIGNED_BYTE,depthBuffer);
+    // 在 GL 執行緒上彙總計數器，DebugOverlay 自行限制刷新頻率
+    private void updateDebugOverlay() {
+        debugOverlay.add(frameCounter, 1);
+        debugOverlay.set(scanSubmittedCounter, scanWorker.getSubmittedSnapshots());
+        debugOverlay.set(scanDroppedCounter, scanWorker.getDroppedSnapshots());
+        debugOverlay.set(scanProcessedCounter, scanWorker.getProcessedSnapshots());
+        debugOverlay.set(scanPointsCounter, scanWorker.getNumberOfPoints());
+        debugOverlay.set(scanAcceptedCounter, scanWorker.getAcceptedSamples());
+        debugOverlay.set(scanRejectedCounter, scanWorker.getRejectedSamples());
+        debugOverlay.set(scanFusionResetCounter, scanWorker.getFusionResets());
+        debugOverlay.set(depthPoolExhaustedCounter, depthBufferPool.getNumberOfExhaustions());
+        debugOverlay.set(scanLoadCounter, scanGovernor.getLoadPercent());
+        debugOverlay.set(scanLevelCounter, scanGovernor.getLevel());
+        debugOverlay.set(scanGridStepCounter, scanGovernor.getGridStep());
+        debugOverlay.set(scanMaxSamplesCounter, scanGovernor.getMaxSamplesPerFrame());
+        debugOverlay.set(scanDepthSkipCounter, scanGovernor.getDepthFrameSkip());
+        debugOverlay.publish();
+        if (toggleMode) {
+            // 同時寫入 systrace 計數器，便於在不同機型上對照幀時間調參
+            AndroidTraceListener.setCounter("scan.load", scanGovernor.getLoadPercent());
+            AndroidTraceListener.setCounter("scan.level", scanGovernor.getLevel());
+            AndroidTraceListener.setCounter("scan.gridStep", scanGovernor.getGridStep());
+            AndroidTraceListener.setCounter("scan.maxSamples", scanGovernor.getMaxSamplesPerFrame());
+            AndroidTraceListener.setCounter("scan.depthSkip", scanGovernor.getDepthFrameSkip());
+        }
+    }
 
-        //用depth方法實驗
-        int byteIndex = 0;
-        int bytePerPixel = 2;
-        int rowStride = 160;
-        int depthWidth = 160;
-        int depthHeight = 120;
-        try (Image depthImage = frame.acquireDepthImage()) {
-            depthWidth = depthImage.getWidth();
-            depthHeight = depthImage.getHeight();
-            depthXScale = (float) depthWidth / (float) Math.max(viewWidth, viewHeight);
-            depthYScale = (float) depthHeight / (float) Math.min(viewWidth, viewHeight);
-            Image.Plane plane = depthImage.getPlanes()[0];
-            bytePerPixel = plane.getPixelStride();
-            rowStride = plane.getRowStride();
-            depthBuffer = plane.getBuffer();
+    // 在 GL 執行緒上採集掃描所需的最小幀資料。深度圖必須在下一次 session.update() 之前關閉，所以複製到緩衝池中
+    private void captureScanSnapshot(Frame frame, Camera camera) {
+        if (camera.getTrackingState() != TrackingState.TRACKING) {
+            return;
+        }
+        if (scanWorker.isFull()) {
+            // 掃描執行緒落後，跳過這一幀而不是阻塞渲染
+            return;
+        }
+        boolean useRawDepth = scanSettings.useRawDepth();
+        DepthBufferPool.PooledBuffer depthBuffer;
+        DepthBufferPool.PooledBuffer confidenceBuffer = null;
+        try (Image depthImage =
+                     useRawDepth ? frame.acquireRawDepthImage() : frame.acquireDepthImage()) {
+            if (depthImage.getTimestamp() == lastScanDepthTimestamp) {
+                // 深度圖沒有更新，同一幀深度取樣兩次只會得到重複的點
+                return;
+            }
+            depthBuffer = depthBufferPool.copyOf(depthImage);
+            if (depthBuffer != null && useRawDepth) {
+                confidenceBuffer = copyRawDepthConfidence(frame);
+                if (confidenceBuffer == null) {
+                    depthBuffer.release();
+                    depthBuffer = null;
+                }
+            }
+            if (depthBuffer != null) {
+                lastScanDepthTimestamp = depthImage.getTimestamp();
+            }
         } catch (NotYetAvailableException e) {
-//            e.printStackTrace();
+            // 深度資料尚未就緒
+            return;
         }
+        if (depthBuffer == null) {
+            // 緩衝池已用盡或置信度圖尚未就緒，跳過這一幀而不是分配新記憶體
+            return;
+        }
+        scanWorker.submit(
+                new ScanSnapshot(
+                        frame.getTimestamp(),
+                        camera.getPose(),
+                        viewMatrix,
+                        projectionMatrix,
+                        viewWidth,
+                        viewHeight,
+                        scanGovernor.getGridStep(),
+                        scanGovernor.getMaxSamplesPerFrame(),
+                        depthBuffer,
+                        confidenceBuffer));
+    }
 
-        int xDepth = (int) (y * depthXScale);
-        int yDepth = (int) ((viewWidth - x) * depthYScale);
-
-
-        int index = (int) ((viewHeight - y) * viewWidth + x) * 4;
-        int b = colorBuffer.get(index) & 0xff;
-        int g = colorBuffer.get(index + 1) & 0xff;
-        int r = colorBuffer.get(index + 2) & 0xff;
-        int a = colorBuffer.get(index + 3) & 0xff;
-        int color = 0xff000000 + (r << 16) + (g << 8) + b;
-        byteIndex = (int) (xDepth * bytePerPixel + yDepth * rowStride);
-        int depth1 = depthBuffer.get(byteIndex) & 0xff;
-        int depth2 = depthBuffer.get(byteIndex + 1) & 0xff;
-        short depth = (short) (depth1 + (depth2 << 8));
-
-
-        float[] cloudPoint = new float[4];
-
-
-        float[] xyzw = PointCloudHelper.screenPointToRay(x, y, depth, viewWidth, viewHeight, viewProjectMatrix);
-        float[] xyz = {
-                xyzw[0],
-                xyzw[1],
-                xyzw[2]
-        };
-        float[] ori = {0, 0, 0, 1f};
-        Pose pose = new Pose(xyz, ori);
-
-        Anchor anchor = session.createAnchor(pose);
-        float finalDepthYScale = depthYScale;
-        float finalDepthXScale = depthXScale;
-        int finalDepthWidth = depthWidth;
-        int finalDepthHeight = depthHeight;
-
-        //0830-3 儲存轉換完的xyz
-        glX.add(xyzw[0]); //分開存
-        glY.add(xyzw[1]);
-        glZ.add(xyzw[2]);
-        //0830-4 合在一起存，依序將xyz存進去glStore(ArrayList)
-        glStore.add(xyzw[0]); // xyzw[0] -> x
-        glStore.add(xyzw[1]); // xyzw[1] -> y
-        glStore.add(xyzw[2]); // xyzw[2] -> z
-
-
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                String msg = String.format("width:%d height:%d deg:%f\r\nTapX:%f\tTapY:%f\r\nx:%f\ty:%f\tz:%f\r\na:%d r:%d g:%d b:%d c:%d\r\ndepth:%d dx:%d dy:%d\r\ndepthWidth:%d depthHeight:%d\r\nxScale:%f yScale:%f\r\n",
-                        viewWidth, viewHeight, deg,
-                        x, y,
-                        xyz[0], xyz[1], xyz[2],
-                        a, r, g, b, color,
-                        depth, xDepth, yDepth,
-                        finalDepthWidth, finalDepthHeight,
-                        finalDepthXScale, finalDepthYScale);
-                degView.append("\r\n");
-                degView.append(msg);
-                degView.setTextColor(Color.BLACK);
-//              degView.setBackgroundColor((Integer.reverse(color)&0xFFFFFF)+0xee000000);
-                degView.setBackgroundColor(0xeeffffff);
-            }
-        });
+    // 複製與原始深度圖對應的置信度圖；尚未就緒或緩衝池用盡時返回 null
+    private DepthBufferPool.PooledBuffer copyRawDepthConfidence(Frame frame) {
+        try (Image confidenceImage = frame.acquireRawDepthConfidenceImage()) {
+            return confidenceBufferPool.copyOf(confidenceImage);
+        } catch (NotYetAvailableException e) {
+            return null;
+        }
     }
 
     public void terminate() {
         toggleMode = false;
     }
 
-    private void autoScan(Frame frame) throws NotYetAvailableException, InterruptedException {
-
-//        Thread a = new Thread(new Runnable() {
-//
-//            @Override
-//            public void run() {
-//        if (toggleMode) {
-//        Thread a = new Thread(new Runnable() {
-//            @Override
-//            public void run() {
-        for (int x = 100; x < viewWidth; x = x + 100) {
-            for (int y = 100; y < viewHeight; y = y + 100) {
-                toWorldCoordinate(x, y, frame);
-            }
-        }
-//            }
-//        });
-
-//            runOnUiThread(new Runnable() {
-//                @Override
-//                public void run() {
-//                    for (int i = 0; i < glX.size(); i++) {
-//                        degView.append("float array Element at : " + i + " " + glX.get(i) + "\r\n");
-//                    }
-//                }
-//            });
-//        a.start();
-//        a.sleep(1000);
-//        }
-    }
-
-
     // Handle only one tap per frame, as taps are usually low frequency compared to frame rate.
     private void handleTap(Frame frame, Camera camera) throws
             InterruptedException, NotYetAvailableException {
         MotionEvent tap = tapHelper.poll();
         if (tap != null && camera.getTrackingState() == TrackingState.TRACKING) {
+            Pose cameraPose = camera.getPose();
             List<HitResult> hitResultList;
             if (instantPlacementSettings.isInstantPlacementEnabled()) {
                 hitResultList =
@@ -978,8 +1186,10 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
                 Trackable trackable = hit.getTrackable();
                 // If a plane was hit, check that it was hit inside the plane polygon.
                 if ((trackable instanceof Plane
+                        && trackedPlanes.getTrackingState((Plane) trackable) == TrackingState.TRACKING
                         && ((Plane) trackable).isPoseInPolygon(hit.getHitPose())
-                        && (PlaneRenderer.calculateDistanceToPlane(hit.getHitPose(), camera.getPose()) > 0))
+                        && (PlaneRenderer.calculateDistanceToPlane(
+                                hit.getHitPose(), cameraPose, tapPlaneNormal) > 0))
                         || (trackable instanceof Point
                         && ((Point) trackable).getOrientationMode()
                         == OrientationMode.ESTIMATED_SURFACE_NORMAL)
@@ -1077,7 +1287,7 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
                                     depth, xDepth, yDepth,
                                     finalDepthWidth, finalDepthHeight,
                                     finalDepthXScale, finalDepthYScale);
-                            degView.setText(msg);
+                            debugOverlay.log(msg);
                             degView.setTextColor(color);
 //              degView.setBackgroundColor((Integer.reverse(color)&0xFFFFFF)+0xee000000);
                             degView.setBackgroundColor(0xeeffffff);
@@ -1149,6 +1359,50 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
                 .show();
     }
 
+    // 掃描設定：原始深度、置信度過濾和多幀融合，用於對照三者對點雲品質和開銷的影響
+    private void launchScanSettingsMenuDialog() {
+        resetSettingsMenuDialogCheckboxes();
+        Resources resources = getResources();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.options_title_scan)
+                .setMultiChoiceItems(
+                        resources.getStringArray(R.array.scan_options_array),
+                        scanSettingsMenuDialogCheckboxes,
+                        (DialogInterface dialog, int which, boolean isChecked) ->
+                                scanSettingsMenuDialogCheckboxes[which] = isChecked)
+                .setPositiveButton(
+                        R.string.done,
+                        (DialogInterface dialogInterface, int which) -> applySettingsMenuDialogCheckboxes())
+                .setNegativeButton(
+                        android.R.string.cancel,
+                        (DialogInterface dialog, int which) -> resetSettingsMenuDialogCheckboxes())
+                .show();
+    }
+
+    // 渲染 pass 設定：以 pass 名稱列出，取消勾選的 pass 在之後的幀中跳過
+    private void launchRenderPassSettingsMenuDialog() {
+        resetSettingsMenuDialogCheckboxes();
+        List<RenderPassGraph.RenderPass> passes = renderPassGraph.getPasses();
+        String[] passNames = new String[passes.size()];
+        for (int i = 0; i < passNames.length; i++) {
+            passNames[i] = passes.get(i).getName();
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.options_title_render_passes)
+                .setMultiChoiceItems(
+                        passNames,
+                        renderPassSettingsMenuDialogCheckboxes,
+                        (DialogInterface dialog, int which, boolean isChecked) ->
+                                renderPassSettingsMenuDialogCheckboxes[which] = isChecked)
+                .setPositiveButton(
+                        R.string.done,
+                        (DialogInterface dialogInterface, int which) -> applySettingsMenuDialogCheckboxes())
+                .setNegativeButton(
+                        android.R.string.cancel,
+                        (DialogInterface dialog, int which) -> resetSettingsMenuDialogCheckboxes())
+                .show();
+    }
+
     /**
      * Shows checkboxes to the user to facilitate toggling of depth-based effects.
      */
@@ -1188,29 +1442,87 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     private void applySettingsMenuDialogCheckboxes() {
         depthSettings.setUseDepthForOcclusion(depthSettingsMenuDialogCheckboxes[0]);
         depthSettings.setDepthColorVisualizationEnabled(depthSettingsMenuDialogCheckboxes[1]);
+        depthSettings.setUseLowResolutionOcclusion(depthSettingsMenuDialogCheckboxes[2]);
         instantPlacementSettings.setInstantPlacementEnabled(
                 instantPlacementSettingsMenuDialogCheckboxes[0]);
+        scanSettings.setUseRawDepth(scanSettingsMenuDialogCheckboxes[0]);
+        scanSettings.setConfidenceFilterEnabled(scanSettingsMenuDialogCheckboxes[1]);
+        scanSettings.setDepthFusionEnabled(scanSettingsMenuDialogCheckboxes[2]);
+        applyScanSettings();
+        List<RenderPassGraph.RenderPass> passes = renderPassGraph.getPasses();
+        for (int i = 0; i < passes.size(); i++) {
+            passes.get(i).setEnabled(renderPassSettingsMenuDialogCheckboxes[i]);
+        }
         configureSession();
     }
 
     private void resetSettingsMenuDialogCheckboxes() {
         depthSettingsMenuDialogCheckboxes[0] = depthSettings.useDepthForOcclusion();
         depthSettingsMenuDialogCheckboxes[1] = depthSettings.depthColorVisualizationEnabled();
+        depthSettingsMenuDialogCheckboxes[2] = depthSettings.useLowResolutionOcclusion();
         instantPlacementSettingsMenuDialogCheckboxes[0] =
                 instantPlacementSettings.isInstantPlacementEnabled();
+        scanSettingsMenuDialogCheckboxes[0] = scanSettings.useRawDepth();
+        scanSettingsMenuDialogCheckboxes[1] = scanSettings.isConfidenceFilterEnabled();
+        scanSettingsMenuDialogCheckboxes[2] = scanSettings.isDepthFusionEnabled();
+        List<RenderPassGraph.RenderPass> passes = renderPassGraph.getPasses();
+        for (int i = 0; i < passes.size(); i++) {
+            renderPassSettingsMenuDialogCheckboxes[i] = passes.get(i).isEnabled();
+        }
+    }
+
+    // 把掃描設定轉成 ScanWorker 的參數；原始深度的開關由 GL 執行緒在採集快照時讀取
+    private void applyScanSettings() {
+        scanWorker.setConfidenceThreshold(
+                scanSettings.isConfidenceFilterEnabled() ? SCAN_CONFIDENCE_THRESHOLD : 0);
+        scanWorker.setFusionFrameCount(
+                scanSettings.isDepthFusionEnabled() ? SCAN_FUSION_FRAME_COUNT : 1);
     }
     //endregion
 
     /**
-     * Checks if we detected at least one plane.
+     * 複製當前跟蹤中的平面，在背景執行緒寫入平面地圖檔案。沒有平面時保留舊檔案。
+     * 連續暫停時各次寫入依序執行，不會同時寫同一個暫存檔。
+     */
+    private void savePlaneMap() {
+        List<PlaneMap.SavedPlane> planes = PlaneMap.copyTrackedPlanes(trackedPlanes.getPlanes());
+        if (planes.isEmpty()) {
+            return;
+        }
+        PlaneMap.saveAsync(new File(getFilesDir(), PLANE_MAP_FILE_NAME), planes);
+    }
+
+    /**
+     * 輸出啟動耗時統計，並在背景執行緒寫出可以用 Perfetto 打開的 Chrome trace 檔案。
      */
-    private boolean hasTrackingPlane() {
-        for (Plane plane : session.getAllTrackables(Plane.class)) {
-            if (plane.getTrackingState() == TrackingState.TRACKING) {
-                return true;
+    private void dumpStartupTrace() {
+        Log.i(TAG, "Startup trace summary:\n" + traceRecorder.getSummary());
+        File directory = getExternalFilesDir(/*type=*/ null);
+        final File traceFile =
+                new File(directory != null ? directory : getFilesDir(), STARTUP_TRACE_FILE_NAME);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Writer writer = new FileWriter(traceFile)) {
+                    traceRecorder.writeChromeTrace(writer);
+                    Log.i(TAG, "Startup trace written to " + traceFile);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to write startup trace", e);
+                }
             }
+        }, "StartupTraceWriter").start();
+        if (BuildConfig.DEBUG) {
+            // 除錯版本在啟動追蹤寫完後跑一次平面排序的基準測試，結果寫入 logcat，不影響啟動計時
+            Thread benchmarkThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Log.i(TAG, "Plane benchmark: " + PlaneRendererBenchmark.run(
+                            PLANE_BENCHMARK_PLANES, PLANE_BENCHMARK_FRAMES));
+                }
+            }, "PlaneBenchmark");
+            benchmarkThread.setPriority(Thread.MIN_PRIORITY);
+            benchmarkThread.start();
         }
-        return false;
     }
 
     /**
@@ -1232,7 +1544,13 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
                 viewMatrix);
         updateSphericalHarmonicsCoefficients(
                 lightEstimate.getEnvironmentalHdrAmbientSphericalHarmonics());
-        cubemapFilter.update(lightEstimate.acquireEnvironmentalHdrCubeMap());
+        // 光照估計沒有更新時不重新取得立方體貼圖，只繼續完成未濾波的 mipmap 層
+        if (lightEstimate.getTimestamp() != lastLightEstimateTimestamp) {
+            lastLightEstimateTimestamp = lightEstimate.getTimestamp();
+            cubemapFilter.update(lightEstimate.acquireEnvironmentalHdrCubeMap());
+        } else {
+            cubemapFilter.filterPendingLevels();
+        }
     }
 
     private void updateMainLight(float[] direction, float[] intensity, float[] viewMatrix) {
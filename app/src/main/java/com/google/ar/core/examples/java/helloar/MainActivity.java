@@ -8,34 +8,36 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.GLU;
+import android.opengl.Matrix;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Gravity;
 import android.view.MotionEvent;
+import android.widget.CheckBox;
 import android.widget.FrameLayout;
 import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.google.ar.core.examples.java.common.samplerender.Mesh;
+import com.google.ar.core.examples.java.common.samplerender.SampleRender;
+import com.google.ar.core.examples.java.common.samplerender.Shader;
+import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
+
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
-
-import javax.microedition.khronos.egl.EGLConfig;
-import javax.microedition.khronos.egl.EGLDisplay;
-import javax.microedition.khronos.egl.EGLSurface;
-import javax.microedition.khronos.opengles.GL10;
-import javax.microedition.khronos.opengles.GL11;
 
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = MainActivity.class.getSimpleName();
+
     private GraphicView graphicView;
     private float vertex[];
 
@@ -84,6 +86,7 @@ public class MainActivity extends AppCompatActivity {
 //        glStorelist.toArray(arr);
 //        vertex = arr;
         graphicView = new GraphicView(this);
+        graphicView.BuildOctreeAsync();
     }
 
     @Override
@@ -95,13 +98,16 @@ public class MainActivity extends AppCompatActivity {
     }
 
     @Override
-    protected void onDestroy() {
-        graphicView.onPause();
-        super.onDestroy();
+    protected void onPause() {
+        // 暫停渲染並註銷加速度計監聽，避免在背景繼續耗電
+        if (graphicView != null) {
+            graphicView.onPause();
+        }
+        super.onPause();
     }
 
 
-    public class GraphicView extends GLSurfaceView implements GLSurfaceView.Renderer {
+    public class GraphicView extends GLSurfaceView implements SampleRender.Renderer {
 
         private float mAngCtr = 0; //for animation
         long mLastTime = SystemClock.elapsedRealtime();
@@ -141,6 +147,10 @@ public class MainActivity extends AppCompatActivity {
 
         int[] mFrameTime = new int[20]; //frames used for avg fps
         int mFramePos = 0; //current fps frame position
+        int mFrameCnt = 0; //frames rendered since rendering resumed
+        long mLastFrameTime = 0; //time of previous rendered frame
+        //按需渲染時兩幀間隔超過這個時間就重新開始統計 fps，空閒時間不計入
+        final long mFPSIdleResetMs = 500;
         long mStartTime = SystemClock.elapsedRealtime(); //for fps
         int mFPSDispCtr = 0; //fps display interval
         float mFPS = 0; //actual fps value
@@ -149,15 +159,35 @@ public class MainActivity extends AppCompatActivity {
         final GraphicView mTagStore = this; //for SetTextMessage
         Handler mThreadHandler = new Handler(); //used in SetTextMessage
 
-        //constants for scene objects in GPU buffer
-        final int mPOINT = 1;
-
-        //need to store length of each vertex buffer
-        int[] mBufferLen = new int[]{0, 0, 0, 0, 0, 0, 0}; //0/Floor/Ball/Pool/Wall/Drop/Splash
-        EGLDisplay mDisplay = null;
-        EGLSurface mBufferSurface = null;
-        EGLSurface mCurSurface = null;
-        boolean mSurfaceToggle = true;
+        //samplerender (GLES 3.0) objects for the point cloud, created in onSurfaceCreated
+        SampleRender mRender = null;
+        VertexBuffer mPositionBuffer = null;
+        VertexBuffer mColorBuffer = null;
+        Mesh mPointMesh = null;
+        Shader mPointShader = null;
+        final float[] mViewMatrix = new float[16];
+        final float[] mProjectionMatrix = new float[16];
+        final float[] mModelViewProjectionMatrix = new float[16];
+        //點的大小以世界座標定義（與 vertex 同單位），越遠畫得越小
+        final float mPointSize = 1.0f;
+        //點在螢幕上的大小範圍（像素）
+        final float[] mPointSizeRange = {1f, 64f};
+        //距離為 1 時一個世界單位對應的像素數，由投影矩陣算出
+        float mPixelScale = 1f;
+
+        //LOD：八叉樹在背景執行緒建好後上傳一次，之後每幀依螢幕空間誤差挑選節點
+        volatile PointOctree mOctree = null;
+        PointOctree mUploadedOctree = null; //GL thread only
+        int[] mRangeFirsts = {0};
+        int[] mRangeCounts = {0};
+        //每幀最多繪製的點數，讓超大掃描的幀時間有上限
+        final int mPointBudget = 2000000;
+        //代表點間距投影到螢幕上小於這個像素數就不再細分
+        final float mLodErrorThreshold = 1.5f;
+        //依觀察投影矩陣剔除視錐外的八叉樹節點，拉近鏡頭時大部分點都不必送進頂點著色器
+        final ViewFrustum mFrustum = new ViewFrustum();
+        //上一幀被剔除的節點數，與 fps 一起顯示，八叉樹建好之前為 -1
+        int mCulledNodeCnt = -1;
 
         //fountain parameters
         int mStreamCnt = 10; //should divide evenly into 360
@@ -168,13 +198,42 @@ public class MainActivity extends AppCompatActivity {
         float[][] dropCoords = new float[mStreamCnt * mDropsPerStream][3];
 
         //accelerometer value set by activity
-        public float AccelZ = 0;
-        public float AccelY = 0;
+        public volatile float AccelZ = 0;
+        public volatile float AccelY = 0;
         int mOrientation = 0; //portrait\landscape
 
+        //按需渲染：傾角變化超過這個角度（度）才重新繪製
+        final float mTiltThreshold = 0.5f;
+        //上一次繪製時使用的傾角，由 GL 執行緒寫入
+        volatile float mRenderedTilt = Float.NaN;
+        SensorManager mSensorManager = null;
+        Sensor mAccelerometer = null;
+        boolean mSensorRegistered = false;
+        boolean mResumed = false;
+        final SensorEventListener mSensorListener = new SensorEventListener() {
+            @Override
+            public void onSensorChanged(SensorEvent event) {
+                //accelerometer does not change orientation so need to switch sensors
+                if (mOrientation == Configuration.ORIENTATION_PORTRAIT)
+                    AccelY = event.values[1]; //use Y sensor
+                else
+                    AccelY = event.values[0]; //use X sensor
+                AccelZ = event.values[2]; //Z
+                //只有傾角變化足夠大時才請求重繪
+                if (UseTiltAngle
+                        && !(Math.abs(GetTiltAngle() - mRenderedTilt) <= mTiltThreshold))
+                    requestRender();
+            }
+
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            } //ignore this event
+        };
+
         //options menu defaults
         public boolean RotateScene = true;
-        public boolean UseTiltAngle = false;
+        //只能經由 SetUseTiltAngle 修改，才會同步註冊或註銷加速度計
+        private volatile boolean UseTiltAngle = false;
         public boolean ShowFPS = true;
         public boolean Paused = false;
 
@@ -194,28 +253,66 @@ public class MainActivity extends AppCompatActivity {
 
             layout.addView(this); //add openGL surface
             layout.addView(mTxtMsg); //add text view
+
+            //傾角控制開關，勾選後才註冊加速度計並跟隨手機傾角重繪
+            CheckBox tiltCheckBox = new CheckBox(layout.getContext());
+            tiltCheckBox.setText(R.string.tilt_control);
+            tiltCheckBox.setTextColor(0xFF777777); //gray
+            tiltCheckBox.setChecked(UseTiltAngle);
+            tiltCheckBox.setOnCheckedChangeListener(
+                    (buttonView, isChecked) -> SetUseTiltAngle(isChecked));
+            layout.addView(tiltCheckBox, new FrameLayout.LayoutParams(
+                    FrameLayout.LayoutParams.WRAP_CONTENT,
+                    FrameLayout.LayoutParams.WRAP_CONTENT,
+                    Gravity.BOTTOM | Gravity.START));
             pActivity.setContentView(layout);
-            setRenderer(this); //initialize surface view
-
-            //create listener for accelerometer sensor
-            ((SensorManager) pActivity.getSystemService(Context.SENSOR_SERVICE)).registerListener(
-                    new SensorEventListener() {
-                        @Override
-                        public void onSensorChanged(SensorEvent event) {
-                            //accelerometer does not change orientation so need to switch sensors
-                            if (mOrientation == Configuration.ORIENTATION_PORTRAIT)
-                                AccelY = event.values[1]; //use Y sensor
-                            else
-                                AccelY = event.values[0]; //use X sensor
-                            AccelZ = event.values[2]; //Z
-                        }
-
-                        @Override
-                        public void onAccuracyChanged(Sensor sensor, int accuracy) {
-                        } //ignore this event
-                    },
-                    ((SensorManager) pActivity.getSystemService(Context.SENSOR_SERVICE))
-                            .getSensorList(Sensor.TYPE_ACCELEROMETER).get(0), SensorManager.SENSOR_DELAY_NORMAL);
+            //SampleRender sets up a GLES 3.0 context and calls back into this view
+            mRender = new SampleRender(this, this, pActivity.getAssets());
+            //點雲是靜態的，只在觸摸、鏡頭變化或傾角變化時才重繪
+            setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+
+            //accelerometer listener is registered in onResume and unregistered in onPause
+            mSensorManager = (SensorManager) pActivity.getSystemService(Context.SENSOR_SERVICE);
+            mAccelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+            mResumed = true;
+            UpdateSensorRegistration();
+            requestRender();
+        }
+
+        @Override
+        public void onPause() {
+            mResumed = false;
+            UpdateSensorRegistration();
+            super.onPause();
+        }
+
+        //開關傾角控制，同時註冊或註銷加速度計
+        public void SetUseTiltAngle(boolean pUseTiltAngle) {
+            UseTiltAngle = pUseTiltAngle;
+            UpdateSensorRegistration();
+            requestRender();
+        }
+
+        void UpdateSensorRegistration() {
+            boolean shouldRegister = mResumed && UseTiltAngle && mAccelerometer != null;
+            if (shouldRegister && !mSensorRegistered) {
+                mSensorManager.registerListener(
+                        mSensorListener, mAccelerometer, SensorManager.SENSOR_DELAY_NORMAL);
+                mSensorRegistered = true;
+            } else if (!shouldRegister && mSensorRegistered) {
+                mSensorManager.unregisterListener(mSensorListener);
+                mSensorRegistered = false;
+            }
+        }
+
+        //phone tilt angle in degrees, 90 when the phone is upright
+        float GetTiltAngle() {
+            return (float) Math.atan2(AccelY, AccelZ) * (float) mRad2Deg;
         }
 
 
@@ -230,98 +327,129 @@ public class MainActivity extends AppCompatActivity {
 
 
 
-        //called once
+        //called once per GL context
         @Override
-        public void onSurfaceCreated(GL10 gl1, EGLConfig pConfig) {
-            float vtx[] = vertex;
-            Log.d("ARRAYTEST", Arrays.toString(vertex));
-
-//            Log.d("TEST", vertex.toString());
-            //every POINT has the same coordinates
-//            float vtx[] = {
-//                    // X,  Y, Z
-//                    15f, 15f, 20f,
-//                    10f,20f, 30f,
-//                    -10f,-20f, 10f,
-//                    20f,20f,20f,
-//                    60f,20f,30f,
-//            };
-
-            GL11 gl = (GL11) gl1; //we need 1.1 functionality
-            //set background frame color
-            gl.glClearColor(0f, 0f, 0f, 1.0f); //black
-            //generate vertex arrays for scene objects
-            StoreVertexData(gl, vtx, mPOINT);
-            //BuildPoint(gl,vtx);
+        public void onSurfaceCreated(SampleRender render) {
+            try {
+                mPointShader =
+                        Shader.createFromAssets(
+                                        render,
+                                        "shaders/scan_points.vert",
+                                        "shaders/scan_points.frag",
+                                        /*defines=*/ null)
+                                .setFloat("u_PointSize", mPointSize)
+                                .setVec2("u_PointSizeRange", mPointSizeRange);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read a required asset file", e);
+                return;
+            }
+            //positions and per-point colors, drawn with a single glDrawArrays(GL_POINTS)
+            mPositionBuffer = new VertexBuffer(render, 3, CreateFloatBuffer(vertex));
+            mColorBuffer = new VertexBuffer(render, 3, CreateFloatBuffer(BuildHeightColors(vertex)));
+            mPointMesh =
+                    new Mesh(
+                            render,
+                            Mesh.PrimitiveMode.POINTS,
+                            /*indexBuffer=*/ null,
+                            new VertexBuffer[] {mPositionBuffer, mColorBuffer});
+            //new GL context, the octree order has to be uploaded again
+            mUploadedOctree = null;
         }
 
-    /*void BuildPoint(GL11 gl,float vertex[]){
-        StoreVertexData(gl, vertex, mPOINT); //store in GPU buffer
-    }*/
+        //在背景執行緒建立八叉樹，完成後請求重繪以上傳重新排列的點
+        public void BuildOctreeAsync() {
+            final float[] positions = vertex;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long start = SystemClock.elapsedRealtime();
+                    PointOctree octree = PointOctree.build(positions, BuildHeightColors(positions));
+                    Log.i(TAG, "Built point octree with " + octree.getNumberOfNodes() + " nodes for "
+                            + positions.length / 3 + " points in "
+                            + (SystemClock.elapsedRealtime() - start) + " ms");
+                    mOctree = octree;
+                    requestRender();
+                }
+            }, "PointOctreeBuilder").start();
+        }
 
-        void StoreVertexData(GL11 gl, float[] pVertices, int pObjectNum) {
-            FloatBuffer buffer = ByteBuffer.allocateDirect(pVertices.length * 4) //float is 4 bytes
+        FloatBuffer CreateFloatBuffer(float[] pValues) {
+            FloatBuffer buffer = ByteBuffer.allocateDirect(pValues.length * 4) //float is 4 bytes
                     .order(ByteOrder.nativeOrder())// use the device hardware's native byte order
                     .asFloatBuffer()  // create a floating point buffer from the ByteBuffer
-                    .put(pVertices);    // add the coordinates to the FloatBuffer
-
-            (gl).glBindBuffer(GL11.GL_ARRAY_BUFFER, pObjectNum); //bind as current object
+                    .put(pValues);    // add the coordinates to the FloatBuffer
             buffer.position(0);
-            //allocate memory and write buffer data
-            (gl).glBufferData(GL11.GL_ARRAY_BUFFER, buffer.capacity() * 4, buffer, GL11.GL_STATIC_DRAW);
-            (gl).glBindBuffer(GL11.GL_ARRAY_BUFFER, 0); //unbind from buffer
-            mBufferLen[pObjectNum] = buffer.capacity() / 3; //store for drawing
+            return buffer;
+        }
+
+        //依高度 (Y) 由低到高上色：藍 -> 青 -> 綠 -> 黃 -> 紅
+        float[] BuildHeightColors(float[] pVertices) {
+            float minY = Float.MAX_VALUE;
+            float maxY = -Float.MAX_VALUE;
+            for (int i = 1; i < pVertices.length; i += 3) {
+                minY = Math.min(minY, pVertices[i]);
+                maxY = Math.max(maxY, pVertices[i]);
+            }
+            float range = Math.max(maxY - minY, 1e-6f);
+            float[] colors = new float[pVertices.length];
+            for (int i = 0; i + 2 < pVertices.length; i += 3) {
+                float t = (pVertices[i + 1] - minY) / range * 4f; //0..4
+                colors[i] = Clamp01(t - 2f); //red rises from green to yellow
+                colors[i + 1] = t < 3f ? Clamp01(t) : Clamp01(4f - t); //green
+                colors[i + 2] = Clamp01(2f - t); //blue fades out from cyan to green
+            }
+            return colors;
+        }
+
+        float Clamp01(float pValue) {
+            return Math.max(0f, Math.min(1f, pValue));
         }
 
         //this is called when the user changes phone orientation (portrait\landscape)
         @Override
-        public void onSurfaceChanged(GL10 gl, int pWidth, int pHeight) {
-            gl.glViewport(0, 0, pWidth, pHeight); //the viewport is the screen
+        public void onSurfaceChanged(SampleRender render, int pWidth, int pHeight) {
             // make adjustments for screen ratio, default would be stretched square
             mScrHeight = pHeight;
             mScrWidth = pWidth;
             mScrRatio = mScrWidth / mScrHeight;
+            UpdateProjection();
+            mOrientation = getResources().getConfiguration().orientation;
+        }
 
-            //set to projection mode to set up Frustum
-            gl.glMatrixMode(GL11.GL_PROJECTION);        // set matrix to projection mode
-            gl.glLoadIdentity();                        // reset the matrix to its default state
+        //set up the perspective pyramid and clip points
+        void UpdateProjection() {
             //calculate the clip region to minimize the depth buffer range (more precise)
             float camDist = (float) Math.sqrt(mCamXpos * mCamXpos + mCamYpos * mCamYpos + mCamZpos * mCamZpos);
             mClipStart = Math.max(2, camDist - 185); //max scene radius is 185 points at corners
-            //set up the perspective pyramid and clip points
-            gl.glFrustumf(
+            Matrix.frustumM(
+                    mProjectionMatrix,
+                    0,
                     -mScrRatio * .5f * mClipStart,
                     mScrRatio * .5f * mClipStart,
                     -1f * .5f * mClipStart,
                     1f * .5f * mClipStart,
                     mClipStart,
                     mClipStart + 185 + Math.min(185, camDist));
-
-            //foreground objects are bigger and hide background objects
-            gl.glEnable(GL11.GL_DEPTH_TEST);
-
-            //set to ModelView mode to set up objects
-            gl.glMatrixMode(GL11.GL_MODELVIEW);
-            mOrientation = getResources().getConfiguration().orientation;
+            //pixels per world unit at distance 1: half the viewport height times the focal length
+            mPixelScale = mScrHeight * .5f * mProjectionMatrix[5];
+            if (mPointShader != null) {
+                mPointShader.setFloat("u_PointSizeScale", mPixelScale);
+            }
         }
 
-        //this is called continuously
+        //called for every requested render
         @Override
-        public void onDrawFrame(GL10 gl1) {
-            GL11 gl = (GL11) gl1; //we need 1.1 functionality
+        public void onDrawFrame(SampleRender render) {
             if (mResetMatrix) //camera distance changed
             {
                 //recalc projection matrix and clip region
-                onSurfaceChanged(gl, (int) mScrWidth, (int) mScrHeight);
+                UpdateProjection();
                 mResetMatrix = false;
             }
 
-            //reset color and depth buffer
-            gl.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
-            gl.glLoadIdentity();   //reset the matrix to its default state
-
             if (UseTiltAngle) //use phone tilt to determine X axis angle
             {
+                mRenderedTilt = GetTiltAngle();
                 //float hyp = (float)Math.sqrt(AccelY*AccelY+AccelZ*AccelZ);
                 if (RotateScene) //rotate camera around 0,0,0
                 {
@@ -349,10 +477,10 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
 
-            //gluLookAt tells openGL the camera position and view direction (target)
+            //the view matrix tells openGL the camera position and view direction (target)
             //target is 0,0,0 for scene rotate
             //Y is up vector, so we set it to 100 (can be any positive number)
-            GLU.gluLookAt(gl, mCamXpos, mCamYpos, mCamZpos, mTargetX, mTargetY, mTargetZ, 0f, 100.0f, 0.0f);
+            Matrix.setLookAtM(mViewMatrix, 0, mCamXpos, mCamYpos, mCamZpos, mTargetX, mTargetY, mTargetZ, 0f, 100.0f, 0.0f);
 
 
             //use clock to adjust animation angle for smoother motion
@@ -367,48 +495,72 @@ public class MainActivity extends AppCompatActivity {
                 if (mAngCtr > 360) mAngCtr -= 360;
             }
 
-            DrawObject(gl, GLES20.GL_POINTS, mPOINT, 0f, 0f, 1f);
+            if (mPointMesh != null) {
+                //the point cloud is already in world coordinates, so the model matrix is identity
+                Matrix.multiplyMM(mModelViewProjectionMatrix, 0, mProjectionMatrix, 0, mViewMatrix, 0);
+                mPointShader.setMat4("u_ModelView", mViewMatrix);
+                mPointShader.setMat4("u_ModelViewProjection", mModelViewProjectionMatrix);
+                DrawPoints(render);
+            }
 
-            if (ShowFPS) //average fps across last 20 frames
+            if (ShowFPS) //average fps across last 20 rendered frames
             {
                 //elapsedRealtime() returns milliseconds since phone boot
-                int thisFrameTime = (int) (SystemClock.elapsedRealtime() - mStartTime);
+                long nowTime = SystemClock.elapsedRealtime();
+                //按需渲染：空閒之後重新開始統計，只計算實際連續渲染的幀
+                boolean newBurst = nowTime - mLastFrameTime > mFPSIdleResetMs;
+                if (newBurst)
+                    mFrameCnt = 0;
+                mLastFrameTime = nowTime;
+                int thisFrameTime = (int) (nowTime - mStartTime);
                 //mFrameTime array stores times for last 20 frames
-                mFPS = (mFrameTime.length) * 1000f / (thisFrameTime - mFrameTime[mFramePos]);
-                mFrameTime[mFramePos] = (int) (SystemClock.elapsedRealtime() - mStartTime);
-                if (mFramePos < mFrameTime.length - 1) //move pointer
-                    mFramePos++;
-                else //end of array, jump to start
-                    mFramePos = 0;
-                if (++mFPSDispCtr == 10) //update fps display every 10 frames
+                int frames = Math.min(mFrameCnt, mFrameTime.length);
+                if (frames > 0) {
+                    int oldestFrameTime = mFrameTime[(mFramePos - frames + mFrameTime.length) % mFrameTime.length];
+                    if (thisFrameTime > oldestFrameTime)
+                        mFPS = frames * 1000f / (thisFrameTime - oldestFrameTime);
+                }
+                mFrameTime[mFramePos] = thisFrameTime;
+                mFramePos = (mFramePos + 1) % mFrameTime.length; //move pointer
+                mFrameCnt++;
+                if (++mFPSDispCtr >= 10 || newBurst) //update fps display every 10 frames
                 {
                     mFPSDispCtr = 0;
-                    SetStatusMsg(Math.round(mFPS * 100) / 100f + " fps"); //2 decimal places
+                    String msg = frames > 0 ? Math.round(mFPS * 100) / 100f + " fps" : "";
+                    if (mCulledNodeCnt >= 0)
+                        msg += (msg.isEmpty() ? "" : ", ") + mCulledNodeCnt + " culled";
+                    SetStatusMsg(msg);
                 }
             }
 
         }
 
-        void DrawObject(GL11 gl, int pShapeType, int pObjNum, float r, float g, float b) {
-            //add 繪製點
-            gl.glPushMatrix();
-            gl.glColor4f(r, g, b, 1);
-            //POINT SIZE : 用PIXEL定義該點大小
-            gl.glPointSize(10);
-            //activate vertex array type
-            gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-            //get vertices for this object id
-            gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, pObjNum);
-            //each vertex is made up of 3 floats [x\y\z]
-            gl.glVertexPointer(3, GL11.GL_FLOAT, 0, 0);
-            //draw points
-            gl.glDrawArrays(pShapeType, 0, mBufferLen[pObjNum]);
-            //unbind from memory
-            gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
-
-
-            //add
-            gl.glPopMatrix();
+        void DrawPoints(SampleRender render) {
+            PointOctree octree = mOctree;
+            if (octree != null && octree != mUploadedOctree) {
+                //upload the points in octree order once, so every node is a contiguous range
+                mPositionBuffer.set(CreateFloatBuffer(octree.getPositions()));
+                mColorBuffer.set(CreateFloatBuffer(octree.getColors()));
+                mRangeFirsts = new int[octree.getNumberOfNodes()];
+                mRangeCounts = new int[octree.getNumberOfNodes()];
+                mUploadedOctree = octree;
+            }
+            int rangeCnt;
+            if (mUploadedOctree != null) {
+                mFrustum.set(mModelViewProjectionMatrix);
+                rangeCnt = mUploadedOctree.select(
+                        mFrustum,
+                        mCamXpos, mCamYpos, mCamZpos,
+                        mPixelScale, mLodErrorThreshold, mPointBudget,
+                        mRangeFirsts, mRangeCounts);
+                mCulledNodeCnt = mUploadedOctree.getNumberOfCulledNodes();
+            } else {
+                //octree not ready yet: draw at most the point budget in scan order
+                mRangeFirsts[0] = 0;
+                mRangeCounts[0] = Math.min(vertex.length / 3, mPointBudget);
+                rangeCnt = 1;
+            }
+            render.drawRanges(mPointMesh, mPointShader, mRangeFirsts, mRangeCounts, rangeCnt);
         }
 
         public void SetStatusMsg(String pMsg) {
@@ -522,6 +674,7 @@ public class MainActivity extends AppCompatActivity {
                         MoveCamera(-5); //move camera forward
                     else if (pEvent.getY() > mScrHeight / 2.0) //bottom half of screen
                         MoveCamera(5); //move camera back
+                    requestRender();
                 }
                 return true; //must have this
             } else if (pEvent.getAction() == MotionEvent.ACTION_MOVE) //dragging
@@ -545,6 +698,7 @@ public class MainActivity extends AppCompatActivity {
                         ChangeCameraAngle((mDragStartY - pEvent.getY()) / 3f, 0); //X axis
                     mDragStartY = pEvent.getY();
                 }
+                requestRender(); //camera changed
                 return true; //must have this
             }
             return super.onTouchEvent(pEvent);
@@ -0,0 +1,337 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * 點雲的八叉樹 LOD 結構。
+ *
+ * <p>每個節點在自己的立方體內用 {@value #GRID_RESOLUTION}³ 的網格挑出每格第一個點作為代表子集，
+ * 其餘的點分給八個子節點；點數不超過 {@link #MAX_POINTS_PER_NODE} 的節點直接儲存全部點。
+ * 建樹時把點重新排列，使每個節點的代表點在頂點緩衝區中連續，繪製一個節點及其所有祖先即得到該區域的完整細節。
+ *
+ * <p>{@link #build} 計算量大，應在背景執行緒呼叫；{@link #select} 只能在一個執行緒（GL 執行緒）呼叫。
+ */
+final class PointOctree {
+    static final int GRID_RESOLUTION = 16;
+    static final int MAX_POINTS_PER_NODE = 4096;
+    private static final int MAX_DEPTH = 16;
+
+    /** 八叉樹節點。代表點是重排後頂點緩衝區中的 [first, first + count)。 */
+    static final class Node {
+        final float centerX;
+        final float centerY;
+        final float centerZ;
+        final float halfSize;
+        int first;
+        int count;
+        Node[] children;
+        // 選擇節點時的優先級，只在 select 中使用
+        float error;
+
+        Node(float centerX, float centerY, float centerZ, float halfSize) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.centerZ = centerZ;
+            this.halfSize = halfSize;
+        }
+
+        /** 代表點之間的大致間距，即節點網格的格寬。 */
+        float getSpacing() {
+            return halfSize * 2f / GRID_RESOLUTION;
+        }
+
+        /** 包圍球半徑。 */
+        float getRadius() {
+            return halfSize * 1.7320508f;
+        }
+    }
+
+    private final Node root;
+    private final int numberOfNodes;
+    private final float[] positions;
+    private final float[] colors;
+
+    // 以下只在 select 中使用
+    private final PriorityQueue<Node> candidates =
+            new PriorityQueue<>(
+                    64,
+                    new Comparator<Node>() {
+                        @Override
+                        public int compare(Node a, Node b) {
+                            return Float.compare(b.error, a.error);
+                        }
+                    });
+    private final ArrayList<Node> selected = new ArrayList<>();
+    private int numberOfCulledNodes;
+
+    private PointOctree(Node root, int numberOfNodes, float[] positions, float[] colors) {
+        this.root = root;
+        this.numberOfNodes = numberOfNodes;
+        this.positions = positions;
+        this.colors = colors;
+    }
+
+    /**
+     * 從按 x, y, z 依次存放的點建立八叉樹。{@code colors} 與 {@code positions} 一一對應，
+     * 建樹後兩者的副本都按節點順序重排。
+     */
+    static PointOctree build(float[] positions, float[] colors) {
+        int numberOfPoints = positions.length / 3;
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        float maxZ = -Float.MAX_VALUE;
+        for (int i = 0; i < numberOfPoints; i++) {
+            minX = Math.min(minX, positions[i * 3]);
+            minY = Math.min(minY, positions[i * 3 + 1]);
+            minZ = Math.min(minZ, positions[i * 3 + 2]);
+            maxX = Math.max(maxX, positions[i * 3]);
+            maxY = Math.max(maxY, positions[i * 3 + 1]);
+            maxZ = Math.max(maxZ, positions[i * 3 + 2]);
+        }
+        if (numberOfPoints == 0) {
+            minX = minY = minZ = maxX = maxY = maxZ = 0f;
+        }
+        float halfSize =
+                Math.max(1e-3f, Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ)) * 0.5f);
+        Node root =
+                new Node(
+                        (minX + maxX) * 0.5f,
+                        (minY + maxY) * 0.5f,
+                        (minZ + maxZ) * 0.5f,
+                        halfSize);
+
+        int[] indices = new int[numberOfPoints];
+        for (int i = 0; i < numberOfPoints; i++) {
+            indices[i] = i;
+        }
+        Builder builder = new Builder(positions, indices);
+        builder.build(root, 0, numberOfPoints, 0);
+
+        float[] sortedPositions = new float[numberOfPoints * 3];
+        float[] sortedColors = new float[numberOfPoints * 3];
+        for (int i = 0; i < numberOfPoints; i++) {
+            System.arraycopy(positions, indices[i] * 3, sortedPositions, i * 3, 3);
+            System.arraycopy(colors, indices[i] * 3, sortedColors, i * 3, 3);
+        }
+        return new PointOctree(root, builder.numberOfNodes, sortedPositions, sortedColors);
+    }
+
+    /** 按節點順序重排後的點座標。 */
+    float[] getPositions() {
+        return positions;
+    }
+
+    /** 與 {@link #getPositions} 對應的顏色。 */
+    float[] getColors() {
+        return colors;
+    }
+
+    int getNumberOfNodes() {
+        return numberOfNodes;
+    }
+
+    /** 上一次 {@link #select} 中因在視錐外而被剔除的節點數（不含其子樹）。 */
+    int getNumberOfCulledNodes() {
+        return numberOfCulledNodes;
+    }
+
+    /**
+     * 選出本幀要繪製的節點，把它們的頂點區間寫入 {@code firsts} 和 {@code counts}（長度至少為節點數），
+     * 相鄰區間會被合併。
+     *
+     * <p>從根節點開始，按螢幕空間誤差從大到小細化：子節點的誤差是其代表點間距投影到螢幕上的像素數，小於 {@code
+     * errorThreshold} 的不再細化；總點數達到 {@code pointBudget} 後停止，從而限制每幀的繪製量。
+     * 包圍盒完全在 {@code frustum} 之外的節點連同其子樹一起被剔除，不佔預算。
+     *
+     * @param pixelScale 距離為 1 時一個世界單位對應的像素數
+     * @return 區間數
+     */
+    int select(
+            ViewFrustum frustum,
+            float cameraX,
+            float cameraY,
+            float cameraZ,
+            float pixelScale,
+            float errorThreshold,
+            int pointBudget,
+            int[] firsts,
+            int[] counts) {
+        selected.clear();
+        candidates.clear();
+        numberOfCulledNodes = 0;
+        if (!frustum.intersectsCube(root.centerX, root.centerY, root.centerZ, root.halfSize)) {
+            numberOfCulledNodes++;
+            return 0;
+        }
+        root.error = Float.MAX_VALUE;
+        candidates.add(root);
+        int total = 0;
+        while (!candidates.isEmpty()) {
+            Node node = candidates.poll();
+            if (total + node.count > pointBudget && !selected.isEmpty()) {
+                break;
+            }
+            selected.add(node);
+            total += node.count;
+            if (node.children == null) {
+                continue;
+            }
+            for (Node child : node.children) {
+                if (child == null) {
+                    continue;
+                }
+                if (!frustum.intersectsCube(
+                        child.centerX, child.centerY, child.centerZ, child.halfSize)) {
+                    numberOfCulledNodes++;
+                    continue;
+                }
+                float dx = child.centerX - cameraX;
+                float dy = child.centerY - cameraY;
+                float dz = child.centerZ - cameraZ;
+                float distance =
+                        Math.max(
+                                (float) Math.sqrt(dx * dx + dy * dy + dz * dz) - child.getRadius(),
+                                1e-3f);
+                // 父節點的間距決定了只畫到父節點時該區域的空洞大小
+                child.error = node.getSpacing() * pixelScale / distance;
+                if (child.error > errorThreshold) {
+                    candidates.add(child);
+                }
+            }
+        }
+
+        // 按頂點位置排序後合併相鄰區間，減少 draw call
+        int numberOfRanges = 0;
+        for (int i = 0; i < selected.size(); i++) {
+            firsts[i] = selected.get(i).first;
+            counts[i] = selected.get(i).count;
+        }
+        sortRanges(firsts, counts, selected.size());
+        for (int i = 0; i < selected.size(); i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (numberOfRanges > 0
+                    && firsts[numberOfRanges - 1] + counts[numberOfRanges - 1] == firsts[i]) {
+                counts[numberOfRanges - 1] += counts[i];
+            } else {
+                firsts[numberOfRanges] = firsts[i];
+                counts[numberOfRanges] = counts[i];
+                numberOfRanges++;
+            }
+        }
+        return numberOfRanges;
+    }
+
+    // 選中的節點通常只有幾十到幾百個，插入排序即可
+    private static void sortRanges(int[] firsts, int[] counts, int size) {
+        for (int i = 1; i < size; i++) {
+            int first = firsts[i];
+            int count = counts[i];
+            int j = i - 1;
+            while (j >= 0 && firsts[j] > first) {
+                firsts[j + 1] = firsts[j];
+                counts[j + 1] = counts[j];
+                j--;
+            }
+            firsts[j + 1] = first;
+            counts[j + 1] = count;
+        }
+    }
+
+    /** 原地劃分索引陣列建樹，結束後索引陣列即為節點順序。 */
+    private static final class Builder {
+        private final float[] positions;
+        private final int[] indices;
+        private final int[] scratch;
+        private final boolean[] occupiedCells =
+                new boolean[GRID_RESOLUTION * GRID_RESOLUTION * GRID_RESOLUTION];
+        int numberOfNodes;
+
+        Builder(float[] positions, int[] indices) {
+            this.positions = positions;
+            this.indices = indices;
+            this.scratch = new int[indices.length];
+        }
+
+        void build(Node node, int from, int to, int depth) {
+            numberOfNodes++;
+            node.first = from;
+            if (to - from <= MAX_POINTS_PER_NODE || depth == MAX_DEPTH) {
+                node.count = to - from;
+                return;
+            }
+
+            // 每個網格單元的第一個點作為代表點，移到區間前部
+            Arrays.fill(occupiedCells, false);
+            float minX = node.centerX - node.halfSize;
+            float minY = node.centerY - node.halfSize;
+            float minZ = node.centerZ - node.halfSize;
+            float cellScale = GRID_RESOLUTION / (node.halfSize * 2f);
+            int selectedEnd = from;
+            for (int i = from; i < to; i++) {
+                int point = indices[i];
+                int cellX = clampCell((positions[point * 3] - minX) * cellScale);
+                int cellY = clampCell((positions[point * 3 + 1] - minY) * cellScale);
+                int cellZ = clampCell((positions[point * 3 + 2] - minZ) * cellScale);
+                int cell = (cellX * GRID_RESOLUTION + cellY) * GRID_RESOLUTION + cellZ;
+                if (!occupiedCells[cell]) {
+                    occupiedCells[cell] = true;
+                    indices[i] = indices[selectedEnd];
+                    indices[selectedEnd] = point;
+                    selectedEnd++;
+                }
+            }
+            node.count = selectedEnd - from;
+
+            // 剩餘的點按所在卦限做計數排序
+            int[] octantStarts = new int[9];
+            for (int i = selectedEnd; i < to; i++) {
+                octantStarts[getOctant(node, indices[i]) + 1]++;
+            }
+            for (int octant = 0; octant < 8; octant++) {
+                octantStarts[octant + 1] += octantStarts[octant];
+            }
+            int[] cursors = Arrays.copyOf(octantStarts, 8);
+            for (int i = selectedEnd; i < to; i++) {
+                int point = indices[i];
+                scratch[selectedEnd + cursors[getOctant(node, point)]++] = point;
+            }
+            System.arraycopy(scratch, selectedEnd, indices, selectedEnd, to - selectedEnd);
+
+            node.children = new Node[8];
+            float childHalfSize = node.halfSize * 0.5f;
+            for (int octant = 0; octant < 8; octant++) {
+                int childFrom = selectedEnd + octantStarts[octant];
+                int childTo = selectedEnd + octantStarts[octant + 1];
+                if (childFrom == childTo) {
+                    continue;
+                }
+                Node child =
+                        new Node(
+                                node.centerX + ((octant & 4) != 0 ? childHalfSize : -childHalfSize),
+                                node.centerY + ((octant & 2) != 0 ? childHalfSize : -childHalfSize),
+                                node.centerZ + ((octant & 1) != 0 ? childHalfSize : -childHalfSize),
+                                childHalfSize);
+                node.children[octant] = child;
+                build(child, childFrom, childTo, depth + 1);
+            }
+        }
+
+        private int getOctant(Node node, int point) {
+            return (positions[point * 3] >= node.centerX ? 4 : 0)
+                    | (positions[point * 3 + 1] >= node.centerY ? 2 : 0)
+                    | (positions[point * 3 + 2] >= node.centerZ ? 1 : 0);
+        }
+
+        private static int clampCell(float cell) {
+            return Math.max(0, Math.min(GRID_RESOLUTION - 1, (int) cell));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.google.ar.core.examples.java.helloar;
+
+/**
+ * 根據掃描的實際開銷調整掃描密度，使掃描不拖慢渲染。
+ *
+ * <p>掃描參數按品質從高到低排成若干檔：取樣網格間距、每幀最多取樣點數、兩次採集之間跳過的深度幀數。
+ * ARCore 的 BLOCKING 更新模式會把幀間隔固定在相機幀率，幀間隔反映不出掃描的開銷，所以改用三個開銷訊號：
+ * GL 執行緒每幀的 CPU 時間、{@link ScanWorker} 執行緒的忙碌比例，以及快照的丟棄率。
+ * 三者各自除以預算得到負載，取最大值；負載的滑動平均超過 1 時降一檔，明顯低於 1 時升一檔；
+ * 每次調整後至少觀察 {@link #ADJUST_INTERVAL_FRAMES} 幀，避免來回抖動。只在 GL 執行緒使用。
+ */
+final class ScanGovernor {
+    // 每檔的參數，索引越大越省
+    private static final int[] GRID_STEPS = {50, 70, 100, 140, 200};
+    private static final int[] MAX_SAMPLES_PER_FRAME = {600, 300, 150, 80, 40};
+    private static final int[] DEPTH_FRAME_SKIPS = {0, 0, 1, 2, 3};
+
+    private static final int ADJUST_INTERVAL_FRAMES = 15;
+    // 滑動平均的平滑係數
+    private static final float SMOOTHING = 0.1f;
+    // GL 執行緒每幀的 CPU 時間最多佔幀預算的一半，其餘留給等待相機和驅動
+    private static final float GL_CPU_BUDGET_FRACTION = 0.5f;
+    // 掃描執行緒忙碌超過 80% 時就會開始積壓快照
+    private static final float WORKER_BUSY_BUDGET = 0.8f;
+    // 快照丟棄率的預算
+    private static final float DROP_RATE_BUDGET = 0.05f;
+    // 負載超過 1 降檔；相鄰兩檔的開銷大約差一倍，負載低於 0.45 才升檔，升檔後仍低於 1
+    private static final float DEGRADE_LOAD = 1.0f;
+    private static final float UPGRADE_LOAD = 0.45f;
+
+    private long targetFrameNanos;
+    private int level = 2;
+    private float smoothedLoad;
+    private int framesSinceAdjustment;
+    private long frameIndex;
+
+    // 上一幀讀到的 ScanWorker 累計值，用來算每幀的增量
+    private boolean hasBaseline;
+    private long previousFrameNanos;
+    private long previousBusyNanos;
+    private long previousSubmittedSnapshots;
+    private long previousDroppedSnapshots;
+
+    ScanGovernor(int targetFps) {
+        setTargetFps(targetFps);
+    }
+
+    void setTargetFps(int targetFps) {
+        if (targetFps <= 0) {
+            throw new IllegalArgumentException("Target FPS must be positive");
+        }
+        targetFrameNanos = 1_000_000_000L / targetFps;
+    }
+
+    int getTargetFps() {
+        return (int) (1_000_000_000L / targetFrameNanos);
+    }
+
+    /**
+     * 在每幀開始時呼叫，更新負載並在需要時調整檔位。
+     *
+     * @param frameTimeNanos 當前時間，{@link System#nanoTime} 的值
+     * @param glFrameCpuNanos 上一幀 GL 執行緒花在繪製上的 CPU 時間
+     * @param worker 提供掃描執行緒的累計忙碌時間和快照計數
+     */
+    void onFrame(long frameTimeNanos, long glFrameCpuNanos, ScanWorker worker) {
+        frameIndex++;
+        long busyNanos = worker.getBusyNanos();
+        long submitted = worker.getSubmittedSnapshots();
+        long dropped = worker.getDroppedSnapshots();
+        if (!hasBaseline) {
+            hasBaseline = true;
+            previousFrameNanos = frameTimeNanos;
+            previousBusyNanos = busyNanos;
+            previousSubmittedSnapshots = submitted;
+            previousDroppedSnapshots = dropped;
+            return;
+        }
+        long elapsed = Math.max(1, frameTimeNanos - previousFrameNanos);
+        float workerBusy = (float) (busyNanos - previousBusyNanos) / elapsed;
+        long submittedDelta = submitted - previousSubmittedSnapshots;
+        float dropRate =
+                submittedDelta == 0
+                        ? 0f
+                        : (float) (dropped - previousDroppedSnapshots) / submittedDelta;
+        previousFrameNanos = frameTimeNanos;
+        previousBusyNanos = busyNanos;
+        previousSubmittedSnapshots = submitted;
+        previousDroppedSnapshots = dropped;
+
+        float load =
+                Math.max(
+                        glFrameCpuNanos / (targetFrameNanos * GL_CPU_BUDGET_FRACTION),
+                        Math.max(workerBusy / WORKER_BUSY_BUDGET, dropRate / DROP_RATE_BUDGET));
+        smoothedLoad += SMOOTHING * (load - smoothedLoad);
+
+        if (++framesSinceAdjustment < ADJUST_INTERVAL_FRAMES) {
+            return;
+        }
+        if (smoothedLoad > DEGRADE_LOAD && level < GRID_STEPS.length - 1) {
+            level++;
+            framesSinceAdjustment = 0;
+        } else if (smoothedLoad < UPGRADE_LOAD && level > 0) {
+            level--;
+            framesSinceAdjustment = 0;
+        }
+    }
+
+    /** 掃描暫停後呼叫，避免把暫停期間的開銷算進去。 */
+    void reset() {
+        hasBaseline = false;
+        smoothedLoad = 0;
+        framesSinceAdjustment = 0;
+    }
+
+    /** 當前幀是否應該採集深度，按跳幀數間隔採集。 */
+    boolean shouldCaptureThisFrame() {
+        return frameIndex % (getDepthFrameSkip() + 1) == 0;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    int getGridStep() {
+        return GRID_STEPS[level];
+    }
+
+    int getMaxSamplesPerFrame() {
+        return MAX_SAMPLES_PER_FRAME[level];
+    }
+
+    int getDepthFrameSkip() {
+        return DEPTH_FRAME_SKIPS[level];
+    }
+
+    /** 平滑後的負載（百分比），100 表示剛好用完預算，用於除錯顯示。 */
+    int getLoadPercent() {
+        return Math.round(smoothedLoad * 100);
+    }
+}
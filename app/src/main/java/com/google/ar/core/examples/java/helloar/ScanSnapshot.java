@@ -0,0 +1,105 @@
+package com.google.ar.core.examples.java.helloar;
+
+import com.google.ar.core.Pose;
+import com.google.ar.core.examples.java.common.helpers.DepthBufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 掃描所需的一幀最小資料，在 GL 執行緒上採集後交給 {@link ScanWorker} 處理。
+ *
+ * <p>建立後不再修改：矩陣在構造時複製，深度資料是 {@code Image} 關閉前複製到 {@link DepthBufferPool}
+ * 緩衝區的副本，因此可以安全地跨執行緒使用。快照持有該緩衝區的一個引用，處理或丟棄後必須呼叫 {@link #release} 歸還。
+ *
+ * <p>使用原始深度時還帶有同樣尺寸的置信度圖，每個像素一個位元組，0 表示最不可信、255 表示最可信。
+ */
+final class ScanSnapshot {
+    final long timestamp;
+    final Pose cameraPose;
+    final float[] viewMatrix;
+    final float[] projectionMatrix;
+    final int viewWidth;
+    final int viewHeight;
+    // 由 ScanGovernor 決定的取樣網格間距（像素）和本幀最多取樣點數
+    final int gridStep;
+    final int maxSamples;
+
+    // DEPTH16 深度圖，每個像素為小端序的毫米值
+    private final DepthBufferPool.PooledBuffer depthBuffer;
+    private final ByteBuffer depthData;
+    final int depthWidth;
+    final int depthHeight;
+    final int depthRowStride;
+    final int depthPixelStride;
+
+    // Y8 置信度圖，沒有時為 null
+    private final DepthBufferPool.PooledBuffer confidenceBuffer;
+    private final ByteBuffer confidenceData;
+    private final int confidenceRowStride;
+    private final int confidencePixelStride;
+
+    ScanSnapshot(
+            long timestamp,
+            Pose cameraPose,
+            float[] viewMatrix,
+            float[] projectionMatrix,
+            int viewWidth,
+            int viewHeight,
+            int gridStep,
+            int maxSamples,
+            DepthBufferPool.PooledBuffer depthBuffer,
+            DepthBufferPool.PooledBuffer confidenceBuffer) {
+        this.timestamp = timestamp;
+        this.cameraPose = cameraPose;
+        this.viewMatrix = viewMatrix.clone();
+        this.projectionMatrix = projectionMatrix.clone();
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.gridStep = gridStep;
+        this.maxSamples = maxSamples;
+        this.depthBuffer = depthBuffer;
+        this.depthData = depthBuffer.getBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        this.depthWidth = depthBuffer.getWidth();
+        this.depthHeight = depthBuffer.getHeight();
+        this.depthRowStride = depthBuffer.getRowStride();
+        this.depthPixelStride = depthBuffer.getPixelStride();
+        this.confidenceBuffer = confidenceBuffer;
+        if (confidenceBuffer != null) {
+            this.confidenceData = confidenceBuffer.getBuffer();
+            this.confidenceRowStride = confidenceBuffer.getRowStride();
+            this.confidencePixelStride = confidenceBuffer.getPixelStride();
+        } else {
+            this.confidenceData = null;
+            this.confidenceRowStride = 0;
+            this.confidencePixelStride = 0;
+        }
+    }
+
+    /** 把深度和置信度緩衝區歸還給緩衝池，之後不能再讀取。 */
+    void release() {
+        depthBuffer.release();
+        if (confidenceBuffer != null) {
+            confidenceBuffer.release();
+        }
+    }
+
+    /** 返回深度圖 (x, y) 處的深度，單位毫米；超出範圍時返回 0。 */
+    int getDepthMillimeters(int x, int y) {
+        if (x < 0 || y < 0 || x >= depthWidth || y >= depthHeight) {
+            return 0;
+        }
+        return depthData.getShort(x * depthPixelStride + y * depthRowStride) & 0xffff;
+    }
+
+    /** 返回 (x, y) 處的置信度，0 到 255；沒有置信度圖時總是返回 255。 */
+    int getConfidence(int x, int y) {
+        if (confidenceData == null) {
+            return 255;
+        }
+        if (x < 0 || y < 0 || x >= depthWidth || y >= depthHeight) {
+            return 0;
+        }
+        return confidenceData.get(x * confidencePixelStride + y * confidenceRowStride) & 0xff;
+    }
+}
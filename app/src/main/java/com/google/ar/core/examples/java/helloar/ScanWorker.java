@@ -0,0 +1,305 @@
+package com.google.ar.core.examples.java.helloar;
+
+import android.opengl.Matrix;
+import android.util.Log;
+
+import com.google.ar.core.examples.java.common.helpers.SpscQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 在背景執行緒中把 {@link ScanSnapshot} 的深度取樣轉換成世界座標點，並去重儲存。
+ *
+ * <p>GL 執行緒是唯一的生產者，通過 {@link #submit} 投遞快照，永遠不會阻塞；佇列滿時新快照被丟棄。工作執行緒每次只處理佇列中最新的快照，
+ * 落後時跳過的舊快照同樣計入丟棄數。
+ *
+ * <p>深度先經過 {@link DepthIngestor} 按置信度過濾並在時間上融合，融合期間的快照只累計、不產生點。
+ * 融合的深度圖用累計開始時的相機矩陣反投影。
+ */
+final class ScanWorker implements Runnable {
+    private static final String TAG = ScanWorker.class.getSimpleName();
+
+    static final int QUEUE_CAPACITY = 2;
+    // 去重用的體素邊長，單位米；同一體素內只保留第一個點
+    private static final float VOXEL_SIZE = 0.01f;
+    private static final int VOXEL_COORDINATE_BITS = 21;
+    private static final int VOXEL_COORDINATE_MASK = (1 << VOXEL_COORDINATE_BITS) - 1;
+
+    private final SpscQueue<ScanSnapshot> queue = new SpscQueue<>(QUEUE_CAPACITY);
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    private final AtomicLong submittedSnapshots = new AtomicLong();
+    private final AtomicLong droppedSnapshots = new AtomicLong();
+    private final AtomicLong processedSnapshots = new AtomicLong();
+    // 處理快照的累計耗時，ScanGovernor 用它計算工作執行緒的忙碌比例
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    // 由 GL 執行緒設定，工作執行緒在處理每個快照前讀取
+    private volatile int confidenceThreshold;
+    private volatile int fusionFrameCount = 1;
+
+    // 以下只在工作執行緒存取
+    private final HashSet<Long> occupiedVoxels = new HashSet<>();
+    private final DepthIngestor depthIngestor = new DepthIngestor();
+    private volatile long acceptedSamples;
+    private volatile long rejectedSamples;
+    private volatile long fusionResets;
+    private final float[] viewProjectionMatrix = new float[16];
+    private final float[] inverseViewProjectionMatrix = new float[16];
+    private final float[] screenPoint = new float[4];
+    private final float[] nearPoint = new float[4];
+    private final float[] farPoint = new float[4];
+    private final float[] worldPoint = new float[3];
+    // 取樣點數超過上限時每幀輪換起點，多幀合起來仍能覆蓋整個網格
+    private int samplePhase;
+
+    // 按 x, y, z 依次存放的點座標，由 this 保護
+    private float[] points = new float[3 * 1024];
+    private int numberOfPoints;
+
+    /** 啟動工作執行緒。 */
+    void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "ScanWorker");
+        thread.start();
+    }
+
+    /** 停止工作執行緒並等待其退出。已儲存的點會保留。 */
+    void stop() {
+        Thread workerThread = thread;
+        if (workerThread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(workerThread);
+        try {
+            workerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        // 工作執行緒已退出，由當前執行緒接管消費端，歸還未處理快照的深度緩衝區
+        ScanSnapshot pending;
+        while ((pending = queue.poll()) != null) {
+            pending.release();
+        }
+    }
+
+    /** 佇列已滿時返回 true，此時 GL 執行緒可以跳過採集以免做無用的複製。 */
+    boolean isFull() {
+        return queue.size() >= queue.capacity();
+    }
+
+    /**
+     * 投遞一幀快照，只能在 GL 執行緒呼叫。
+     *
+     * @return 佇列已滿、快照被丟棄時返回 false；此時快照已被釋放
+     */
+    boolean submit(ScanSnapshot snapshot) {
+        submittedSnapshots.incrementAndGet();
+        if (!queue.offer(snapshot)) {
+            droppedSnapshots.incrementAndGet();
+            snapshot.release();
+            return false;
+        }
+        Thread workerThread = thread;
+        if (workerThread != null) {
+            LockSupport.unpark(workerThread);
+        }
+        return true;
+    }
+
+    /** 設定置信度閾值（0 到 255），低於閾值的深度像素不參與掃描。 */
+    void setConfidenceThreshold(int confidenceThreshold) {
+        if (confidenceThreshold < 0 || confidenceThreshold > 255) {
+            throw new IllegalArgumentException("Confidence threshold must be in [0, 255]");
+        }
+        this.confidenceThreshold = confidenceThreshold;
+    }
+
+    /** 設定融合成一張深度圖的快照數，1 表示逐幀反投影。 */
+    void setFusionFrameCount(int fusionFrameCount) {
+        if (fusionFrameCount <= 0) {
+            throw new IllegalArgumentException("Fusion frame count must be positive");
+        }
+        this.fusionFrameCount = fusionFrameCount;
+    }
+
+    /** 通過置信度過濾、參與融合的深度像素數。 */
+    long getAcceptedSamples() {
+        return acceptedSamples;
+    }
+
+    /** 因置信度不足或沒有深度而被丟棄的深度像素數。 */
+    long getRejectedSamples() {
+        return rejectedSamples;
+    }
+
+    /** 因相機移動而提前輸出融合結果的次數。 */
+    long getFusionResets() {
+        return fusionResets;
+    }
+
+    long getSubmittedSnapshots() {
+        return submittedSnapshots.get();
+    }
+
+    long getDroppedSnapshots() {
+        return droppedSnapshots.get();
+    }
+
+    long getProcessedSnapshots() {
+        return processedSnapshots.get();
+    }
+
+    long getBusyNanos() {
+        return busyNanos.get();
+    }
+
+    synchronized int getNumberOfPoints() {
+        return numberOfPoints;
+    }
+
+    /** 返回已儲存點座標的副本，格式與 MainActivity 讀取的 "Store_key" 一致。 */
+    synchronized ArrayList<Float> copyPoints() {
+        ArrayList<Float> result = new ArrayList<>(numberOfPoints * 3);
+        for (int i = 0; i < numberOfPoints * 3; i++) {
+            result.add(points[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            ScanSnapshot snapshot = queue.poll();
+            if (snapshot == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            // 落後時只處理最新的一幀
+            ScanSnapshot newer;
+            while ((newer = queue.poll()) != null) {
+                droppedSnapshots.incrementAndGet();
+                snapshot.release();
+                snapshot = newer;
+            }
+            long startNanos = System.nanoTime();
+            try {
+                process(snapshot);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to process scan snapshot", e);
+            } finally {
+                // 不論是否產生新點、是否出錯都算處理過，使提交數 = 丟棄數 + 處理數 + 佇列中的數量
+                processedSnapshots.incrementAndGet();
+                snapshot.release();
+                busyNanos.addAndGet(System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    private void process(ScanSnapshot snapshot) {
+        depthIngestor.setConfidenceThreshold(confidenceThreshold);
+        depthIngestor.setFusionFrameCount(fusionFrameCount);
+        boolean fused = depthIngestor.ingest(snapshot);
+        acceptedSamples = depthIngestor.getAcceptedSamples();
+        rejectedSamples = depthIngestor.getRejectedSamples();
+        fusionResets = depthIngestor.getResets();
+        if (!fused) {
+            return;
+        }
+
+        Matrix.multiplyMM(
+                viewProjectionMatrix,
+                0,
+                depthIngestor.getProjectionMatrix(),
+                0,
+                depthIngestor.getViewMatrix(),
+                0);
+        if (!Matrix.invertM(inverseViewProjectionMatrix, 0, viewProjectionMatrix, 0)) {
+            return;
+        }
+
+        int viewWidth = snapshot.viewWidth;
+        int viewHeight = snapshot.viewHeight;
+        // 深度圖是橫向的，螢幕是豎向的
+        float depthXScale = (float) snapshot.depthWidth / (float) Math.max(viewWidth, viewHeight);
+        float depthYScale = (float) snapshot.depthHeight / (float) Math.min(viewWidth, viewHeight);
+
+        int step = snapshot.gridStep;
+        int columns = Math.max(0, (viewWidth - 1) / step);
+        int rows = Math.max(0, (viewHeight - 1) / step);
+        int stride = Math.max(1, (columns * rows + snapshot.maxSamples - 1) / snapshot.maxSamples);
+        int phase = samplePhase++ % stride;
+
+        int sample = 0;
+        for (int x = step; x < viewWidth; x += step) {
+            for (int y = step; y < viewHeight; y += step) {
+                if (sample++ % stride != phase) {
+                    continue;
+                }
+                int xDepth = (int) (y * depthXScale);
+                int yDepth = (int) ((viewWidth - x) * depthYScale);
+                int depth = depthIngestor.getDepthMillimeters(xDepth, yDepth);
+                if (depth == 0) {
+                    // 沒有有效深度，或置信度不足
+                    continue;
+                }
+                unproject(x, y, depth, viewWidth, viewHeight);
+                if (occupiedVoxels.add(getVoxelKey(worldPoint))) {
+                    addPoint(worldPoint);
+                }
+            }
+        }
+    }
+
+    // 與 PointCloudHelper.screenPointToRay 相同的計算，但複用已求好的逆矩陣且不分配記憶體
+    private void unproject(float x, float y, int depthMillimeters, int width, int height) {
+        screenPoint[0] = x * 2f / width - 1f;
+        screenPoint[1] = (height - y) * 2f / height - 1f;
+        screenPoint[2] = -1f;
+        screenPoint[3] = 1f;
+        Matrix.multiplyMV(nearPoint, 0, inverseViewProjectionMatrix, 0, screenPoint, 0);
+        screenPoint[2] = 1f;
+        Matrix.multiplyMV(farPoint, 0, inverseViewProjectionMatrix, 0, screenPoint, 0);
+
+        float originX = nearPoint[0] / nearPoint[3];
+        float originY = nearPoint[1] / nearPoint[3];
+        float originZ = nearPoint[2] / nearPoint[3];
+        float directionX = farPoint[0] / farPoint[3] - originX;
+        float directionY = farPoint[1] / farPoint[3] - originY;
+        float directionZ = farPoint[2] / farPoint[3] - originZ;
+        float length =
+                (float) Math.sqrt(
+                        directionX * directionX + directionY * directionY + directionZ * directionZ);
+        float distance = depthMillimeters / 1000f / length;
+        worldPoint[0] = originX + directionX * distance;
+        worldPoint[1] = originY + directionY * distance;
+        worldPoint[2] = originZ + directionZ * distance;
+    }
+
+    private static long getVoxelKey(float[] point) {
+        long key = 0;
+        for (int i = 0; i < 3; i++) {
+            long coordinate = (long) Math.floor(point[i] / VOXEL_SIZE) & VOXEL_COORDINATE_MASK;
+            key = (key << VOXEL_COORDINATE_BITS) | coordinate;
+        }
+        return key;
+    }
+
+    private synchronized void addPoint(float[] point) {
+        if (numberOfPoints * 3 + 3 > points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        System.arraycopy(point, 0, points, numberOfPoints * 3, 3);
+        numberOfPoints++;
+    }
+}
@@ -0,0 +1,43 @@
+package com.google.ar.core.examples.java.helloar;
+
+/**
+ * 從觀察投影矩陣提取的六個裁剪平面，用於在 CPU 上剔除視錐外的包圍盒。
+ *
+ * <p>平面按 Gribb-Hartmann 方法從列主序的 OpenGL 矩陣中取出，法向量指向視錐內部。只在一個執行緒使用。
+ */
+final class ViewFrustum {
+    // 每個平面 4 個係數 (a, b, c, d)，點在平面內側時 a*x + b*y + c*z + d >= 0
+    private final float[] planes = new float[6 * 4];
+
+    /** 用觀察投影矩陣（投影 × 觀察）更新裁剪平面。 */
+    void set(float[] viewProjectionMatrix) {
+        for (int axis = 0; axis < 3; axis++) {
+            for (int sign = 0; sign < 2; sign++) {
+                int plane = (axis * 2 + sign) * 4;
+                float direction = sign == 0 ? 1f : -1f;
+                for (int column = 0; column < 4; column++) {
+                    // 第 3 行 ± 第 axis 行
+                    planes[plane + column] =
+                            viewProjectionMatrix[column * 4 + 3]
+                                    + direction * viewProjectionMatrix[column * 4 + axis];
+                }
+            }
+        }
+    }
+
+    /** 以 (centerX, centerY, centerZ) 為中心、半邊長為 halfSize 的立方體是否與視錐相交（保守判斷）。 */
+    boolean intersectsCube(float centerX, float centerY, float centerZ, float halfSize) {
+        for (int plane = 0; plane < planes.length; plane += 4) {
+            float a = planes[plane];
+            float b = planes[plane + 1];
+            float c = planes[plane + 2];
+            float distance = a * centerX + b * centerY + c * centerZ + planes[plane + 3];
+            // 立方體在平面法向上的投影半徑
+            float extent = halfSize * (Math.abs(a) + Math.abs(b) + Math.abs(c));
+            if (distance + extent < 0f) {
+                return false;
+            }
+        }
+        return true;
+    }
+}